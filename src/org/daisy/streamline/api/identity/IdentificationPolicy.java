@@ -0,0 +1,127 @@
+package org.daisy.streamline.api.identity;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>Provides a policy for how much work an {@link IdentityProvider} should do
+ * when identifying a file.</p>
+ * 
+ * <p>The provider identifies a file in rounds. In each round, the accepting factories
+ * are tried in order until the number of successful identifications equals the 
+ * number of candidates. The candidate with the highest confidence is kept, see
+ * {@link IdentificationResult#getConfidence()}, and the next round builds upon it. 
+ * The factories that succeeded, including those whose results were discarded,
+ * are not tried again in later rounds.
+ * A result without a confidence score is ranked below any result with a score.</p>
+ * 
+ * <p>By default, only one candidate is considered in each round and the provider 
+ * continues until no more factories accept the file, which is the behavior of 
+ * previous versions.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class IdentificationPolicy {
+	private final Optional<Double> threshold;
+	private final int candidates;
+	private final Optional<Duration> timeBudget;
+
+	/**
+	 * Provides a builder for identification policies.
+	 */
+	public static class Builder {
+		private Double threshold = null;
+		private int candidates = 1;
+		private Duration timeBudget = null;
+
+		/**
+		 * Sets the confidence threshold. A result with a confidence equal to or 
+		 * above this value ends the identification.
+		 * @param value the threshold, in the range 0 to 1
+		 * @return this builder
+		 * @throws IllegalArgumentException if the value is not in the range 0 to 1
+		 */
+		public Builder stopAtConfidence(double value) {
+			if (!(value>=0 && value<=1)) {
+				throw new IllegalArgumentException("Threshold out of range: " + value);
+			}
+			this.threshold = value;
+			return this;
+		}
+
+		/**
+		 * Sets the number of successful identifications to compare in each round.
+		 * @param value the number of candidates, must be at least 1
+		 * @return this builder
+		 * @throws IllegalArgumentException if the value is less than 1
+		 */
+		public Builder candidates(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Value must be at least 1: " + value);
+			}
+			this.candidates = value;
+			return this;
+		}
+
+		/**
+		 * Sets the time budget for identifying a file. When the time is up, no
+		 * new identification attempts are started and the best result so far 
+		 * is returned. Note that an ongoing attempt is not interrupted.
+		 * @param value the time budget
+		 * @return this builder
+		 */
+		public Builder timeBudget(Duration value) {
+			this.timeBudget = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Builds a new policy based on the current state of this builder.
+		 * @return a new policy
+		 */
+		public IdentificationPolicy build() {
+			return new IdentificationPolicy(this);
+		}
+	}
+
+	private IdentificationPolicy(Builder builder) {
+		this.threshold = Optional.ofNullable(builder.threshold);
+		this.candidates = builder.candidates;
+		this.timeBudget = Optional.ofNullable(builder.timeBudget);
+	}
+
+	/**
+	 * Gets the confidence threshold.
+	 * @return the threshold, or an empty optional if identification 
+	 * 		does not end because of a confident result
+	 */
+	public Optional<Double> getConfidenceThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Gets the number of successful identifications to compare in each round.
+	 * @return the number of candidates
+	 */
+	public int getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * Gets the time budget.
+	 * @return the time budget, or an empty optional if unlimited
+	 */
+	public Optional<Duration> getTimeBudget() {
+		return timeBudget;
+	}
+	
+	boolean isConclusive(IdentificationResult<?> result) {
+		return threshold.isPresent() && result.getConfidence().map(v->v>=threshold.get()).orElse(false);
+	}
+	
+	boolean isExpired(long start) {
+		return timeBudget.isPresent() && System.nanoTime()-start>=timeBudget.get().toNanos();
+	}
+
+}
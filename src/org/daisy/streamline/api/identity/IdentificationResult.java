@@ -0,0 +1,72 @@
+package org.daisy.streamline.api.identity;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import org.daisy.streamline.api.media.FileDetails;
+
+/**
+ * Provides the result of a successful identification, optionally with 
+ * the confidence of the identifier in the result.
+ * 
+ * @author Joel Håkansson
+ * @param <T> the type of result
+ */
+public final class IdentificationResult<T extends FileDetails> {
+	private final T result;
+	private final Optional<Double> confidence;
+
+	private IdentificationResult(T result, Optional<Double> confidence) {
+		this.result = Objects.requireNonNull(result);
+		this.confidence = confidence;
+	}
+	
+	/**
+	 * Creates a new result without a confidence score.
+	 * @param <T> the type of result
+	 * @param result the identified file or source
+	 * @return a new result
+	 */
+	public static <T extends FileDetails> IdentificationResult<T> with(T result) {
+		return new IdentificationResult<>(result, Optional.empty());
+	}
+	
+	/**
+	 * Creates a new result with a confidence score. The score must be in the range
+	 * 0 to 1, where 1 means that the identifier is certain that the result is correct
+	 * and that no further identification is needed.
+	 * @param <T> the type of result
+	 * @param result the identified file or source
+	 * @param confidence the confidence
+	 * @return a new result
+	 * @throws IllegalArgumentException if the confidence is not in the range 0 to 1
+	 */
+	public static <T extends FileDetails> IdentificationResult<T> with(T result, double confidence) {
+		if (!(confidence>=0 && confidence<=1)) {
+			throw new IllegalArgumentException("Confidence out of range: " + confidence);
+		}
+		return new IdentificationResult<>(result, Optional.of(confidence));
+	}
+
+	/**
+	 * Gets the identified file or source.
+	 * @return the result
+	 */
+	public T getResult() {
+		return result;
+	}
+
+	/**
+	 * Gets the confidence of the identifier in the result, in the range 0 to 1.
+	 * @return the confidence, or an empty optional if not known
+	 */
+	public Optional<Double> getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return "IdentificationResult [result=" + result + ", confidence=" + confidence + "]";
+	}
+
+}
@@ -28,4 +28,40 @@ public interface Identifier {
 	 */
 	public AnnotatedInputStream identify(InputStreamSupplier source) throws IdentificationFailedException;
 	
+	/**
+	 * Identifies the file format of the specified file and returns the result together
+	 * with the confidence of this identifier in the result. Implementations that can tell
+	 * how certain they are should override this method, see {@link IdentificationPolicy}.
+	 * The default implementation returns the result of {@link #identify(AnnotatedFile)}
+	 * without a confidence score.
+	 * @param f the file to identify
+	 * @return returns the result
+	 * @throws IdentificationFailedException if identification is unsuccessful
+	 */
+	public default IdentificationResult<AnnotatedFile> identifyWithConfidence(AnnotatedFile f) throws IdentificationFailedException {
+		AnnotatedFile ret = identify(f);
+		if (ret==null) {
+			throw new IdentificationFailedException("No result from " + this);
+		}
+		return IdentificationResult.with(ret);
+	}
+	
+	/**
+	 * Identifies the format of the specified source and returns the result together
+	 * with the confidence of this identifier in the result. Implementations that can tell
+	 * how certain they are should override this method, see {@link IdentificationPolicy}.
+	 * The default implementation returns the result of {@link #identify(InputStreamSupplier)}
+	 * without a confidence score.
+	 * @param source the source to identify
+	 * @return returns the result
+	 * @throws IdentificationFailedException if identification is unsuccessful
+	 */
+	public default IdentificationResult<AnnotatedInputStream> identifyWithConfidence(InputStreamSupplier source) throws IdentificationFailedException {
+		AnnotatedInputStream ret = identify(source);
+		if (ret==null) {
+			throw new IdentificationFailedException("No result from " + this);
+		}
+		return IdentificationResult.with(ret);
+	}
+	
 }
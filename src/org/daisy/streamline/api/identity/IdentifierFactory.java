@@ -9,7 +9,7 @@ import org.daisy.streamline.api.media.FileDetails;
 public interface IdentifierFactory {
 	
 	/**
-	 * Creates a new identifier.
+	 * Creates a new identifier. See also {@link #getReuse()}.
 	 * @return returns a new identifier instance
 	 */
 	public Identifier newIdentifier();
@@ -25,6 +25,19 @@ public interface IdentifierFactory {
 	 */
 	public boolean accepts(FileDetails type);
 	
+	/**
+	 * Gets the extent to which identifiers created by this factory can be reused.
+	 * Factories whose identifiers are expensive to create should declare a reuse
+	 * other than {@link IdentifierReuse#NONE} if their identifiers allow it. 
+	 * The returned value must not change during the lifetime of the factory.
+	 * The default implementation returns {@link IdentifierReuse#NONE}.
+	 * 
+	 * @return the reuse
+	 */
+	public default IdentifierReuse getReuse() {
+		return IdentifierReuse.NONE;
+	}
+	
 	/**
 	 * <p>Informs the implementation that it was discovered and instantiated using
 	 * information collected from a file within the <code>META-INF/services</code> directory.
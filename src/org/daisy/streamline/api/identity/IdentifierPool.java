@@ -0,0 +1,32 @@
+package org.daisy.streamline.api.identity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides identifier instances according to the reuse declared by each factory,
+ * see {@link IdentifierFactory#getReuse()}.
+ * @author Joel Håkansson
+ */
+class IdentifierPool {
+	private final Map<IdentifierFactory, Identifier> shared = new ConcurrentHashMap<>();
+	private final Map<IdentifierFactory, ThreadLocal<Identifier>> perThread = new ConcurrentHashMap<>();
+
+	Identifier get(IdentifierFactory factory) {
+		switch (factory.getReuse()) {
+			case SHARED:
+				return shared.computeIfAbsent(factory, IdentifierFactory::newIdentifier);
+			case PER_THREAD:
+				return perThread.computeIfAbsent(factory, f->ThreadLocal.withInitial(f::newIdentifier)).get();
+			case NONE: default:
+				return factory.newIdentifier();
+		}
+	}
+	
+	void remove(IdentifierFactory factory) {
+		shared.remove(factory);
+		// Instances held by other threads are released with the thread local
+		perThread.remove(factory);
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.daisy.streamline.api.identity;
+
+/**
+ * Defines how identifiers created by an {@link IdentifierFactory} may be reused
+ * by an {@link IdentityProvider}.
+ * @author Joel Håkansson
+ */
+public enum IdentifierReuse {
+	/**
+	 * A new identifier is created for every identification attempt.
+	 */
+	NONE,
+	/**
+	 * An identifier can be used for any number of identifications, but only by
+	 * the thread that created it. In other words, it isn't thread safe, but it
+	 * doesn't keep state between calls.
+	 */
+	PER_THREAD,
+	/**
+	 * An identifier is thread safe and a single instance can be shared by all threads.
+	 */
+	SHARED
+}
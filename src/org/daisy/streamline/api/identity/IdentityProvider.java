@@ -3,6 +3,7 @@ package org.daisy.streamline.api.identity;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
@@ -12,6 +13,7 @@ import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.media.AnnotatedInputStream;
 import org.daisy.streamline.api.media.DefaultAnnotatedFile;
 import org.daisy.streamline.api.media.DefaultAnnotatedInputStream;
+import org.daisy.streamline.api.media.FileDetails;
 import org.daisy.streamline.api.media.InputStreamSupplier;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
@@ -26,13 +28,25 @@ import org.osgi.service.component.annotations.ReferencePolicy;
 @Component
 public class IdentityProvider implements IdentityProviderService {
 	private final List<IdentifierFactory> filters;
+	private final IdentificationPolicy policy;
+	private final IdentifierPool pool;
 	private static final Logger logger = Logger.getLogger(IdentityProvider.class.getCanonicalName());
 	
 	/**
 	 * Creates a new empty identity provider.
 	 */
 	public IdentityProvider() {
+		this(new IdentificationPolicy.Builder().build());
+	}
+	
+	/**
+	 * Creates a new empty identity provider with the specified policy.
+	 * @param policy the identification policy
+	 */
+	public IdentityProvider(IdentificationPolicy policy) {
 		this.filters = new CopyOnWriteArrayList<>();
+		this.policy = Objects.requireNonNull(policy);
+		this.pool = new IdentifierPool();
 	}
 	
 	/**
@@ -50,7 +64,18 @@ public class IdentityProvider implements IdentityProviderService {
 	 * @return returns a new IdentityProviderService
 	 */
 	public static final IdentityProviderService newInstance() {
-		IdentityProvider ret = new IdentityProvider();
+		return newInstance(new IdentificationPolicy.Builder().build());
+	}
+	
+	/**
+	 * Creates a new IdentityProviderService with the specified policy and populates
+	 * it using the SPI (java service provider interface).
+	 * 
+	 * @param policy the identification policy
+	 * @return returns a new IdentityProviderService
+	 */
+	public static final IdentityProviderService newInstance(IdentificationPolicy policy) {
+		IdentityProvider ret = new IdentityProvider(policy);
 		for (IdentifierFactory factory : ServiceLoader.load(IdentifierFactory.class)) {
 			factory.setCreatedWithSPI();
 			ret.addFactory(factory);
@@ -80,36 +105,33 @@ public class IdentityProvider implements IdentityProviderService {
 			logger.finer("Removing factory: " + factory);
 		}
 		filters.remove(factory);
+		pool.remove(factory);
 	}
 
 	@Override
 	public AnnotatedFile identify(File in) {
 		AnnotatedFile f = DefaultAnnotatedFile.create(in.toPath());
-
-		// get a list of factories
-		List<IdentifierFactory> factories = new ArrayList<>(filters);		
-		while (!factories.isEmpty()) {
-			try {
-				f = identify(f, factories);
-			} catch (IdentificationFailedException e) {
-				if (logger.isLoggable(Level.FINE)) {
-					logger.log(Level.FINE, "No matching identifier factories.", e);
-				}
-				break;
-			}
-		}
-		return f;
+		return identify(f, (id, x)->id.identifyWithConfidence(x));
 	}
 	
 	@Override
 	public AnnotatedInputStream identify(InputStreamSupplier in) {
 		AnnotatedInputStream stream = DefaultAnnotatedInputStream.create(in);
-
+		return identify(stream, (id, x)->id.identifyWithConfidence(x));
+	}
+	
+	private <T extends FileDetails> T identify(T in, Attempt<T> attempt) {
+		long start = System.nanoTime();
+		T f = in;
 		// get a list of factories
 		List<IdentifierFactory> factories = new ArrayList<>(filters);
 		while (!factories.isEmpty()) {
 			try {
-				stream = identify(stream, factories);
+				IdentificationResult<T> res = identify(f, factories, attempt, start);
+				f = res.getResult();
+				if (policy.isConclusive(res)) {
+					break;
+				}
 			} catch (IdentificationFailedException e) {
 				if (logger.isLoggable(Level.FINE)) {
 					logger.log(Level.FINE, "No matching identifier factories.", e);
@@ -117,41 +139,48 @@ public class IdentityProvider implements IdentityProviderService {
 				break;
 			}
 		}
-		return stream;
+		return f;
 	}
 
-	private AnnotatedFile identify(AnnotatedFile f, List<IdentifierFactory> factories) throws IdentificationFailedException {
+	private <T extends FileDetails> IdentificationResult<T> identify(T f, List<IdentifierFactory> factories, Attempt<T> attempt, long start) throws IdentificationFailedException {
 		IdentificationFailedException ex = new IdentificationFailedException();
+		IdentificationResult<T> best = null;
+		List<IdentifierFactory> succeeded = new ArrayList<>();
 		for (IdentifierFactory id : factories) {
+			if (policy.isExpired(start)) {
+				ex.addSuppressed(new IdentificationFailedException("Time budget exceeded."));
+				break;
+			}
 			if (id.accepts(f)) {
 				try {
-					AnnotatedFile x = id.newIdentifier().identify(f);
-					// identification was successful, remove this from future iterations
-					factories.remove(id);
-					return x;
+					IdentificationResult<T> x = attempt.apply(pool.get(id), f);
+					succeeded.add(id);
+					if (best==null || rank(x)>rank(best)) {
+						best = x;
+					}
+					if (policy.isConclusive(x) || succeeded.size()>=policy.getCandidates()) {
+						break;
+					}
 				} catch (IdentificationFailedException e) {
 					ex.addSuppressed(e);
 				}
 			}
 		}
-		throw ex;
-	}
-
-	private AnnotatedInputStream identify(AnnotatedInputStream stream, List<IdentifierFactory> factories) throws IdentificationFailedException {
-		IdentificationFailedException ex = new IdentificationFailedException();
-		for (IdentifierFactory id : factories) {
-			if (id.accepts(stream)) {
-				try {
-					AnnotatedInputStream ret = id.newIdentifier().identify(stream);
-					// identification was successful, remove this from future iterations
-					factories.remove(id);
-					return ret;
-				} catch (IdentificationFailedException e) {
-					ex.addSuppressed(e);
-				}
-			}
+		if (best==null) {
+			throw ex;
 		}
-		throw ex;
+		// identification was successful. The results of all the factories that succeeded
+		// have been considered, so remove them from future iterations
+		factories.removeAll(succeeded);
+		return best;
+	}
+	
+	private static double rank(IdentificationResult<?> res) {
+		return res.getConfidence().orElse(Double.NEGATIVE_INFINITY);
+	}
+	
+	private interface Attempt<T extends FileDetails> {
+		IdentificationResult<T> apply(Identifier id, T f) throws IdentificationFailedException;
 	}
 
 }
\ No newline at end of file
@@ -1,9 +1,15 @@
 package org.daisy.streamline.api.identity;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.daisy.streamline.api.media.AnnotatedFile;
 import org.daisy.streamline.api.media.AnnotatedInputStream;
+import org.daisy.streamline.api.media.ArchiveFileSet;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
 import org.daisy.streamline.api.media.InputStreamSupplier;
 
 /**
@@ -37,5 +43,39 @@ public interface IdentityProviderService {
 	 * @return returns a annotated source with the type details
 	 */
 	public AnnotatedInputStream identify(InputStreamSupplier in);
+	
+	/**
+	 * <p>Identifies the entries of the supplied ZIP-based container, such as EPUB, without
+	 * extracting it. Each entry is identified using {@link #identify(InputStreamSupplier)}.</p>
+	 * 
+	 * <p>The returned file set must be closed when it is no longer needed, see {@link ArchiveFileSet}.</p>
+	 * 
+	 * @param archive the container
+	 * @param manifestPath the path to the manifest within the container
+	 * @return a file set with the identified entries
+	 * @throws IOException if the container cannot be read, or if the manifest does not exist
+	 */
+	public default ArchiveFileSet identifyEntries(Path archive, String manifestPath) throws IOException {
+		return ArchiveFileSet.open(archive, manifestPath, f->{
+			Path p = f.getPath();
+			AnnotatedInputStream ret = identify(new InputStreamSupplier() {
+				@Override
+				public InputStream newInputStream() throws IOException {
+					return Files.newInputStream(p);
+				}
+
+				@Override
+				public String getSystemId() {
+					return p.toUri().toString();
+				}
+			});
+			return DefaultAnnotatedFile.with(p)
+					.formatName(ret.getFormatName())
+					.extension(ret.getExtension())
+					.mediaType(ret.getMediaType())
+					.properties(ret.getProperties())
+					.build();
+		});
+	}
 
 }
@@ -1,7 +1,12 @@
 package org.daisy.streamline.api.media;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -24,4 +29,50 @@ public interface AnnotatedFile extends FileDetails {
 	 */
 	public Path getPath();
 
+	/**
+	 * <p>Maps a region of this file into memory. The returned buffer is read-only
+	 * and its position is zero. The region is truncated at the end of the file, so
+	 * the capacity of the buffer may be smaller than the requested size.</p>
+	 * 
+	 * <p>This is intended for identifiers that need to probe data beyond the first
+	 * bytes of a file, such as the central directory at the end of a ZIP-file, without
+	 * reading everything in between. Note that a single buffer cannot exceed 
+	 * {@link Integer#MAX_VALUE} bytes. Larger files must be mapped in several regions.</p>
+	 * 
+	 * @param position the position within the file where the region starts
+	 * @param size the size of the region
+	 * @return a read-only buffer
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if position or size is negative, or if size is larger
+	 * 			than {@link Integer#MAX_VALUE}
+	 */
+	public default MappedByteBuffer map(long position, long size) throws IOException {
+		if (position<0 || size<0 || size>Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format("Illegal region: %d, %d", position, size));
+		}
+		try (FileChannel fc = FileChannel.open(getPath(), StandardOpenOption.READ)) {
+			long start = Math.min(position, fc.size());
+			// the mapping remains valid after the channel is closed
+			return fc.map(MapMode.READ_ONLY, start, Math.min(size, fc.size()-start));
+		}
+	}
+	
+	/**
+	 * Maps the last bytes of this file into memory. If the file is smaller than the
+	 * requested size, the entire file is mapped. See {@link #map(long, long)}.
+	 * @param size the maximum size of the region
+	 * @return a read-only buffer
+	 * @throws IOException if the file cannot be mapped
+	 * @throws IllegalArgumentException if size is negative or larger than {@link Integer#MAX_VALUE}
+	 */
+	public default MappedByteBuffer mapTail(long size) throws IOException {
+		if (size<0 || size>Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Illegal size: " + size);
+		}
+		try (FileChannel fc = FileChannel.open(getPath(), StandardOpenOption.READ)) {
+			long start = Math.max(0, fc.size()-size);
+			return fc.map(MapMode.READ_ONLY, start, fc.size()-start);
+		}
+	}
+
 }
@@ -0,0 +1,349 @@
+package org.daisy.streamline.api.media;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>Provides a file set backed by a ZIP-based container, such as EPUB. The resources
+ * are read in place using the zip file system provided by the JDK, in other words
+ * without extracting the container. The paths of the resources point into the
+ * archive and can be used with {@link Files}, but not with {@link java.io.File}.</p>
+ * 
+ * <p>The archive itself is never modified. Instead, resources are modified through
+ * {@link #getWritablePath(String)}, which copies the resource to an overlay folder
+ * outside of the archive. The modified file set can then be repacked into a new
+ * archive using {@link #publish(Path)}.</p>
+ * 
+ * <p>The file set must be closed when it is no longer used. Once closed, the resources
+ * can no longer be accessed and the overlay folder is deleted.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class ArchiveFileSet implements FileSet, Closeable {
+	private static final String MIMETYPE = "mimetype";
+	private final Path archive;
+	private final FileSystem fs;
+	private final Path root;
+	private final List<String> entries;
+	private final DefaultFileSet fileSet;
+	private final Map<String, AnnotatedFile> overlay;
+	private volatile Path overlayFolder;
+
+	private ArchiveFileSet(Path archive, FileSystem fs, Path root, List<String> entries, DefaultFileSet fileSet) {
+		this.archive = archive;
+		this.fs = fs;
+		this.root = root;
+		this.entries = entries;
+		this.fileSet = fileSet;
+		this.overlay = new ConcurrentHashMap<>();
+		this.overlayFolder = null;
+	}
+
+	/**
+	 * Opens the specified archive as a file set. The resources are annotated with
+	 * their file extension only.
+	 * @param archive the path to the archive
+	 * @param manifestPath the path to the manifest within the archive
+	 * @return a new file set
+	 * @throws IOException if the archive cannot be opened, or if the manifest does not exist
+	 */
+	public static ArchiveFileSet open(Path archive, String manifestPath) throws IOException {
+		return open(archive, manifestPath, UnaryOperator.identity());
+	}
+
+	/**
+	 * Opens the specified archive as a file set. Each entry in the archive is passed to
+	 * the supplied annotator, for example to identify it, before it is added to the file set.
+	 * @param archive the path to the archive
+	 * @param manifestPath the path to the manifest within the archive
+	 * @param annotator the annotator, the returned file must have the same path as the supplied one
+	 * @return a new file set
+	 * @throws IOException if the archive cannot be opened, or if the manifest does not exist
+	 */
+	public static ArchiveFileSet open(Path archive, String manifestPath, UnaryOperator<AnnotatedFile> annotator) throws IOException {
+		return open(archive, FileSystems.newFileSystem(archive, (ClassLoader)null), manifestPath, annotator);
+	}
+
+	/**
+	 * Creates a file set from an archive that has already been opened. The file set
+	 * takes ownership of the file system, which is closed if the file set cannot be created.
+	 * @param archive the path to the archive
+	 * @param fs the zip file system of the archive
+	 * @param manifestPath the path to the manifest within the archive
+	 * @param annotator the annotator, the returned file must have the same path as the supplied one
+	 * @return a new file set
+	 * @throws IOException if the manifest does not exist, or if the archive cannot be read
+	 */
+	static ArchiveFileSet open(Path archive, FileSystem fs, String manifestPath, UnaryOperator<AnnotatedFile> annotator) throws IOException {
+		try {
+			Path root = fs.getPath("/");
+			Path manifest = root.resolve(manifestPath).normalize();
+			if (!Files.isRegularFile(manifest)) {
+				throw new NoSuchFileException(manifestPath, null, "Manifest not found in " + archive);
+			}
+			List<Path> entries;
+			try (Stream<Path> s = Files.walk(root)) {
+				entries = s.filter(p->Files.isRegularFile(p)).collect(Collectors.toList());
+			}
+			DefaultFileSet.Builder builder = DefaultFileSet.with(BaseFolder.with(root), annotate(manifest, annotator), root.relativize(manifest).toString());
+			List<String> keys = new ArrayList<>();
+			for (Path p : entries) {
+				String key = root.relativize(p).toString();
+				keys.add(key);
+				if (!p.equals(manifest)) {
+					builder.add(annotate(p, annotator), key);
+				}
+			}
+			return new ArchiveFileSet(archive, fs, root, Collections.unmodifiableList(keys), builder.build());
+		} catch (IOException | RuntimeException e) {
+			fs.close();
+			throw e;
+		}
+	}
+
+	private static AnnotatedFile annotate(Path p, UnaryOperator<AnnotatedFile> annotator) {
+		return annotator.apply(DefaultAnnotatedFile.with(p).extension(p).build());
+	}
+	
+	/**
+	 * Gets the path to the archive.
+	 * @return the path to the archive
+	 */
+	public Path getArchive() {
+		return archive;
+	}
+
+	/**
+	 * <p>Gets a path where the resource at the specified path can be modified. The first
+	 * time this method is called for a path, the resource is copied from the archive
+	 * to the overlay folder. If the resource doesn't exist, the returned path doesn't
+	 * exist either, and the resource is added to the file set once it is written to.</p>
+	 * 
+	 * <p>After this call, the file set returns the resource in the overlay folder
+	 * for this path.</p>
+	 * @param path the path to the resource within the file set
+	 * @return a path in the default file system
+	 * @throws IOException if the resource could not be copied
+	 * @throws IllegalArgumentException if the path is outside of the base folder
+	 */
+	public synchronized Path getWritablePath(String path) throws IOException {
+		String key = DefaultFileSet.normalizeRelativePath(root, path);
+		Path target = getOverlayFolder().resolve(key).normalize();
+		DefaultFileSet.requireDescendant(overlayFolder, target);
+		AnnotatedFile f = overlay.get(key);
+		if (f==null) {
+			Files.createDirectories(target.getParent());
+			Optional<AnnotatedFile> original = fileSet.getResourceForKey(key);
+			if (original.isPresent()) {
+				Files.copy(original.get().getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+				f = DefaultAnnotatedFile.with(original.get()).file(target).build();
+			} else {
+				f = DefaultAnnotatedFile.with(target).extension(target).build();
+			}
+			overlay.put(key, f);
+		}
+		return f.getPath();
+	}
+
+	private Path getOverlayFolder() throws IOException {
+		if (overlayFolder==null) {
+			overlayFolder = Files.createTempDirectory("archive-overlay");
+		}
+		return overlayFolder;
+	}
+
+	/**
+	 * Gets the overlay file for the specified key, if it has been written to.
+	 */
+	private AnnotatedFile getWritten(String key) {
+		AnnotatedFile f = overlay.get(key);
+		return f!=null && Files.exists(f.getPath()) ? f : null;
+	}
+
+	/**
+	 * Returns true if the resource at the specified path has been modified or added.
+	 * @param path the path
+	 * @return true if the resource is in the overlay folder, false otherwise
+	 */
+	public boolean isModified(String path) {
+		return overlay.containsKey(DefaultFileSet.normalizeRelativePath(root, path));
+	}
+
+	/**
+	 * <p>Repacks this file set into a new archive at the specified location. Resources
+	 * that have not been modified are copied from the original archive. The entries are
+	 * written in the order of the original archive, followed by any added entries.</p>
+	 * 
+	 * <p>If the archive contains a <code>mimetype</code> entry, it is written first and
+	 * without compression, as required by the OCF container format (EPUB).</p>
+	 * 
+	 * <p>The archive is written to a temporary file next to the target, which is then moved
+	 * into place. The target must not be the original archive, since it is open while
+	 * the file set is in use. To replace the original, publish to another location, close
+	 * this file set and then move the new archive into place.</p>
+	 * @param target the location of the new archive
+	 * @throws IllegalArgumentException if the target is the original archive
+	 * @throws IOException if an I/O error occurs
+	 */
+	public synchronized void publish(Path target) throws IOException {
+		if (Files.exists(target) && Files.isSameFile(target, archive)) {
+			throw new IllegalArgumentException("Cannot publish onto the open archive: " + target);
+		}
+		List<String> keys = new ArrayList<>(entries);
+		Set<String> existing = new HashSet<>(entries);
+		overlay.keySet().stream()
+			.filter(v->!existing.contains(v) && getWritten(v)!=null)
+			.sorted(Comparator.naturalOrder())
+			.forEach(keys::add);
+		Path parent = target.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+		try {
+			try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				if (keys.remove(MIMETYPE)) {
+					byte[] data = Files.readAllBytes(getResourceForKey(MIMETYPE).get().getPath());
+					CRC32 crc = new CRC32();
+					crc.update(data);
+					ZipEntry e = new ZipEntry(MIMETYPE);
+					e.setMethod(ZipEntry.STORED);
+					e.setSize(data.length);
+					e.setCompressedSize(data.length);
+					e.setCrc(crc.getValue());
+					out.putNextEntry(e);
+					out.write(data);
+					out.closeEntry();
+				}
+				for (String key : keys) {
+					Path p = getResourceForKey(key).get().getPath();
+					out.putNextEntry(new ZipEntry(key));
+					try (InputStream in = Files.newInputStream(p)) {
+						copy(in, out);
+					}
+					out.closeEntry();
+				}
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+	}
+
+	private static void copy(InputStream in, ZipOutputStream out) throws IOException {
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = in.read(buf))>=0) {
+			out.write(buf, 0, len);
+		}
+	}
+
+	@Override
+	public BaseFolder getBaseFolder() {
+		return fileSet.getBaseFolder();
+	}
+
+	@Override
+	public AnnotatedFile getManifest() {
+		AnnotatedFile f = getWritten(fileSet.getManifestPath());
+		return f!=null ? f : fileSet.getManifest();
+	}
+
+	@Override
+	public String getManifestPath() {
+		return fileSet.getManifestPath();
+	}
+
+	@Override
+	public boolean isManifest(String path) {
+		return fileSet.isManifest(path);
+	}
+
+	@Override
+	public Optional<FormatIdentifier> getFormatIdentifier() {
+		return fileSet.getFormatIdentifier();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Resources added with {@link #getWritablePath(String)} are included once
+	 * they have been written to.</p>
+	 */
+	@Override
+	public Set<String> getResourcePaths() {
+		if (overlay.isEmpty()) {
+			return fileSet.getResourcePaths();
+		}
+		Set<String> ret = new HashSet<>(fileSet.getResourcePaths());
+		overlay.keySet().stream().filter(v->getWritten(v)!=null).forEach(ret::add);
+		return Collections.unmodifiableSet(ret);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResourceForKey(String key) {
+		AnnotatedFile f = getWritten(key);
+		return f!=null ? Optional.of(f) : fileSet.getResourceForKey(key);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(String path) {
+		AnnotatedFile f = overlay.isEmpty() ? null : getWritten(DefaultFileSet.normalizeRelativePath(root, path));
+		return f!=null ? Optional.of(f) : fileSet.getResource(path);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(Path path) {
+		if (path.getFileSystem()==fs) {
+			return getResource(root.relativize(path).toString());
+		}
+		Path folder = overlayFolder;
+		if (folder!=null && DefaultFileSet.isDescendant(folder, path)) {
+			return getResource(folder.relativize(path.toAbsolutePath().normalize()).toString());
+		}
+		throw new IllegalArgumentException(String.format("'%s' is not a descendant of '%s'", path, root));
+	}
+
+	@Override
+	public Stream<AnnotatedFile> streamExternal() {
+		return fileSet.streamExternal();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			fs.close();
+		} finally {
+			Path folder;
+			synchronized (this) {
+				folder = overlayFolder;
+				overlayFolder = null;
+				overlay.clear();
+			}
+			if (folder!=null) {
+				FileUtils.deleteRecursively(folder);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * <p>Provides a {@link FileSetProvider} for ZIP-based containers, such as EPUB.
+ * The returned file sets are {@link ArchiveFileSet}s, in other words the resources
+ * are read in place without extracting the archive. The caller is responsible for
+ * closing the file set when it is no longer used.</p>
+ *
+ * <p>The path to the manifest within the archive can be supplied with the
+ * {@link #MANIFEST_PATH} parameter. If it isn't, the manifest is located using
+ * <code>META-INF/container.xml</code>, as specified by the OCF container format.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class ArchiveFileSetProvider implements FileSetProvider {
+	/**
+	 * Defines the parameter key for the path to the manifest within the archive.
+	 */
+	public static final String MANIFEST_PATH = "manifest-path";
+	private static final String CONTAINER_PATH = "META-INF/container.xml";
+	private static final String EPUB_MEDIA_TYPE = "application/epub+zip";
+	private static final String ZIP_MEDIA_TYPE = "application/zip";
+	private static final Set<String> MEDIA_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(EPUB_MEDIA_TYPE, ZIP_MEDIA_TYPE)));
+	private static final Set<String> EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("epub", "zip")));
+
+	private ArchiveFileSetProvider() {
+	}
+
+	/**
+	 * Creates a new archive file set provider.
+	 * @return a new provider
+	 */
+	public static ArchiveFileSetProvider newInstance() {
+		return new ArchiveFileSetProvider();
+	}
+
+	@Override
+	public boolean accepts(FileDetails type) {
+		String mediaType = type.getMediaType();
+		if (mediaType!=null) {
+			return EPUB_MEDIA_TYPE.equals(mediaType) || ZIP_MEDIA_TYPE.equals(mediaType);
+		}
+		String ext = type.getExtension();
+		return "epub".equalsIgnoreCase(ext) || "zip".equalsIgnoreCase(ext);
+	}
+
+	@Override
+	public Set<String> getMediaTypes() {
+		return MEDIA_TYPES;
+	}
+
+	@Override
+	public Set<String> getExtensions() {
+		return EXTENSIONS;
+	}
+
+	@Override
+	public FileSet create(AnnotatedFile f, Map<String, Object> parameters) throws FileSetException {
+		try {
+			Object param = parameters.get(MANIFEST_PATH);
+			FileSystem fs = FileSystems.newFileSystem(f.getPath(), (ClassLoader)null);
+			String manifestPath;
+			try {
+				if (param!=null) {
+					manifestPath = param.toString();
+				} else {
+					manifestPath = findRootFile(fs)
+							.orElseThrow(()->new FileSetException("No manifest path supplied and no root file found in " + f.getPath()));
+				}
+			} catch (IOException | FileSetException | RuntimeException e) {
+				fs.close();
+				throw e;
+			}
+			// The file set takes ownership of the file system
+			return ArchiveFileSet.open(f.getPath(), fs, manifestPath, UnaryOperator.identity());
+		} catch (IOException e) {
+			throw new FileSetException("Failed to open archive: " + f.getPath(), e);
+		}
+	}
+
+	/**
+	 * Finds the path to the first root file listed in the container file.
+	 * @param fs the zip file system of the archive
+	 * @return the path to the root file, or an empty optional if not found
+	 * @throws IOException if the archive cannot be read
+	 * @throws FileSetException if the container file cannot be parsed
+	 */
+	static Optional<String> findRootFile(FileSystem fs) throws IOException, FileSetException {
+		Path container = fs.getPath(CONTAINER_PATH);
+		if (!Files.isRegularFile(container)) {
+			return Optional.empty();
+		}
+		try (InputStream in = Files.newInputStream(container)) {
+			XMLInputFactory inFactory = XMLInputFactory.newInstance();
+			inFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			XMLStreamReader reader = inFactory.createXMLStreamReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next()==XMLStreamConstants.START_ELEMENT && "rootfile".equals(reader.getLocalName())) {
+						return Optional.ofNullable(reader.getAttributeValue(null, "full-path"));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new FileSetException("Failed to parse " + CONTAINER_PATH, e);
+		}
+		return Optional.empty();
+	}
+
+}
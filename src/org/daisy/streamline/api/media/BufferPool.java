@@ -0,0 +1,67 @@
+package org.daisy.streamline.api.media;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides a pool of direct byte buffers of a fixed size. Direct buffers are
+ * expensive to allocate and are only released when garbage collected, so
+ * they should be reused.
+ *
+ * @author Joel Håkansson
+ */
+final class BufferPool {
+	private final int bufferSize;
+	private final int maxPooled;
+	private final Queue<ByteBuffer> pool;
+	private final AtomicInteger pooled;
+
+	/**
+	 * Creates a new buffer pool.
+	 * @param bufferSize the size of each buffer
+	 * @param maxPooled the maximum number of buffers to keep in the pool
+	 */
+	BufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+		this.pool = new ConcurrentLinkedQueue<>();
+		this.pooled = new AtomicInteger(0);
+	}
+
+	/**
+	 * Gets the size of the buffers in this pool.
+	 * @return the buffer size
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Gets a cleared buffer from the pool, or allocates a new one if the pool is empty.
+	 * @return a buffer
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer ret = pool.poll();
+		if (ret==null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		pooled.decrementAndGet();
+		ret.clear();
+		return ret;
+	}
+
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used after this call.
+	 * @param buffer the buffer
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer.capacity()==bufferSize && buffer.isDirect() && pooled.incrementAndGet()<=maxPooled) {
+			pool.offer(buffer);
+		} else if (buffer.capacity()==bufferSize && buffer.isDirect()) {
+			pooled.decrementAndGet();
+		}
+	}
+
+}
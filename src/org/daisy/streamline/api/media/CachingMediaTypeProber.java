@@ -0,0 +1,68 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Provides a media type prober that remembers the result of another prober
+ * for each file name extension. The underlying prober is consulted once per extension,
+ * subsequent files with the same extension get the same media type. Files without
+ * an extension are always passed on to the underlying prober.</p>
+ * 
+ * <p>The cache key is the lower case extension only. The rest of the path, and the
+ * contents of the file, are not considered. Hence, this is only appropriate if the
+ * underlying prober determines the media type from the file name, which is the case
+ * with most implementations of {@link java.nio.file.Files#probeContentType(Path)}.
+ * Don't use it with a prober that inspects the contents, such as
+ * {@link ContentMediaTypeProber}.</p>
+ * 
+ * <p>If the underlying prober doesn't know the media type, that is remembered too. If it
+ * throws an exception, nothing is remembered. At most 1024 extensions are
+ * remembered, after that unknown extensions are always passed on to the underlying prober.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class CachingMediaTypeProber implements MediaTypeProber {
+	private static final int MAX_ENTRIES = 1024;
+	private final MediaTypeProber prober;
+	private final Map<String, Optional<String>> cache;
+
+	private CachingMediaTypeProber(MediaTypeProber prober) {
+		this.prober = Objects.requireNonNull(prober);
+		this.cache = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Creates a new prober that remembers the results of the specified prober.
+	 * @param prober the underlying prober
+	 * @return a new prober
+	 */
+	public static CachingMediaTypeProber with(MediaTypeProber prober) {
+		return new CachingMediaTypeProber(prober);
+	}
+
+	@Override
+	public String probeContentType(Path path) throws IOException {
+		String ext = ExtensionMediaTypeProber.findExtension(path);
+		if (ext==null) {
+			return prober.probeContentType(path);
+		}
+		ext = ext.toLowerCase(Locale.ROOT);
+		Optional<String> ret = cache.get(ext);
+		if (ret==null) {
+			// An IOException propagates before anything is remembered,
+			// while an unknown media type (null) is remembered
+			ret = Optional.ofNullable(prober.probeContentType(path));
+			if (cache.size()<MAX_ENTRIES) {
+				cache.putIfAbsent(ext, ret);
+			}
+		}
+		return ret.orElse(null);
+	}
+
+}
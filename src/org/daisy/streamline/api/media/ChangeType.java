@@ -0,0 +1,20 @@
+package org.daisy.streamline.api.media;
+
+/**
+ * Defines the types of changes to a resource in a file set, see {@link ResourceChange}.
+ * @author Joel Håkansson
+ */
+public enum ChangeType {
+	/**
+	 * The resource was added.
+	 */
+	ADDED,
+	/**
+	 * The resource was removed.
+	 */
+	REMOVED,
+	/**
+	 * The contents of the resource was modified.
+	 */
+	MODIFIED
+}
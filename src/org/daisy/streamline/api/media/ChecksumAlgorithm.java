@@ -0,0 +1,47 @@
+package org.daisy.streamline.api.media;
+
+/**
+ * Defines checksum algorithms for file sets, see {@link FileSetChecksums}.
+ * @author Joel Håkansson
+ */
+public enum ChecksumAlgorithm {
+	/**
+	 * SHA-256, a cryptographic hash. Use this algorithm when the checksums
+	 * must detect deliberate modifications, or are used for deduplication.
+	 */
+	SHA_256("SHA-256"),
+	/**
+	 * CRC-32, a fast non-cryptographic checksum. Use this algorithm to detect
+	 * accidental corruption only.
+	 */
+	CRC32("CRC32");
+
+	private final String name;
+
+	private ChecksumAlgorithm(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Gets the name of the algorithm, as used by {@link DigestCache}.
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the algorithm with the specified name.
+	 * @param name the name
+	 * @return the algorithm
+	 * @throws IllegalArgumentException if there is no algorithm with the specified name
+	 */
+	public static ChecksumAlgorithm forName(String name) {
+		for (ChecksumAlgorithm a : values()) {
+			if (a.name.equals(name)) {
+				return a;
+			}
+		}
+		throw new IllegalArgumentException("Unknown algorithm: " + name);
+	}
+}
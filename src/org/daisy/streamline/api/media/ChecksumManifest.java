@@ -0,0 +1,207 @@
+package org.daisy.streamline.api.media;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * <p>Provides a checksum manifest, in other words a list of resource paths and
+ * their checksums. A manifest is created with {@link FileSetChecksums#generate(FileSet)}.</p>
+ *
+ * <p>The file format is UTF-8 encoded text. The first line contains the algorithm, prefixed by <code># </code>.
+ * Each following line contains a checksum in lower case hex, two spaces and the resource path,
+ * in the same way as the output of <code>sha256sum</code>. Resource paths always use
+ * <code>/</code> as separator, so that a manifest can be verified on any platform.
+ * Like <code>sha256sum</code>, a path containing a backslash, a line feed or a carriage
+ * return is escaped as <code>\\</code>, <code>\n</code> and <code>\r</code>, and the
+ * line is prefixed by a backslash.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class ChecksumManifest {
+	private static final String HEADER_PREFIX = "# ";
+	private static final String SEPARATOR = "  ";
+	private static final char ESCAPE = '\\';
+	private final ChecksumAlgorithm algorithm;
+	private final Map<String, String> checksums;
+
+	/**
+	 * Creates a new checksum manifest.
+	 * @param algorithm the algorithm
+	 * @param checksums a map of resource paths and checksums in lower case hex
+	 */
+	public ChecksumManifest(ChecksumAlgorithm algorithm, Map<String, String> checksums) {
+		this.algorithm = Objects.requireNonNull(algorithm);
+		this.checksums = Collections.unmodifiableMap(new HashMap<>(checksums));
+	}
+
+	/**
+	 * Gets the algorithm used for the checksums in this manifest.
+	 * @return the algorithm
+	 */
+	public ChecksumAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Gets the checksums in this manifest.
+	 * @return an unmodifiable map of resource paths and checksums in lower case hex
+	 */
+	public Map<String, String> getChecksums() {
+		return checksums;
+	}
+
+	/**
+	 * Gets the checksum for the specified resource path.
+	 * @param path the resource path
+	 * @return the checksum in lower case hex
+	 */
+	public Optional<String> getChecksum(String path) {
+		return Optional.ofNullable(checksums.get(path));
+	}
+
+	/**
+	 * Writes this manifest to the specified file. The paths are sorted.
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(Path file) throws IOException {
+		try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			w.write(HEADER_PREFIX + algorithm.getName());
+			w.newLine();
+			for (Map.Entry<String, String> e : new TreeMap<>(checksums).entrySet()) {
+				String path = escape(e.getKey());
+				if (path!=e.getKey()) {
+					w.write(ESCAPE);
+				}
+				w.write(e.getValue() + SEPARATOR + path);
+				w.newLine();
+			}
+		}
+	}
+
+	/**
+	 * Reads a manifest from the specified file.
+	 * @param file the file
+	 * @return the manifest
+	 * @throws IOException if an I/O error occurs, or if the file is not a checksum manifest
+	 */
+	public static ChecksumManifest read(Path file) throws IOException {
+		try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String header = r.readLine();
+			if (header==null || !header.startsWith(HEADER_PREFIX)) {
+				throw new IOException("Not a checksum manifest: " + file);
+			}
+			ChecksumAlgorithm algorithm;
+			try {
+				algorithm = ChecksumAlgorithm.forName(header.substring(HEADER_PREFIX.length()).trim());
+			} catch (IllegalArgumentException e) {
+				throw new IOException(e);
+			}
+			Map<String, String> checksums = new HashMap<>();
+			String line;
+			while ((line = r.readLine())!=null) {
+				if (line.isEmpty()) {
+					continue;
+				}
+				boolean escaped = line.charAt(0)==ESCAPE;
+				int start = escaped ? 1 : 0;
+				int i = line.indexOf(SEPARATOR, start);
+				if (i<0) {
+					throw new IOException("Malformed line in " + file + ": " + line);
+				}
+				String path = line.substring(i+SEPARATOR.length());
+				if (escaped) {
+					path = unescape(path);
+					if (path==null) {
+						throw new IOException("Malformed escape in " + file + ": " + line);
+					}
+				}
+				checksums.put(path, line.substring(start, i));
+			}
+			return new ChecksumManifest(algorithm, checksums);
+		}
+	}
+
+	/**
+	 * Escapes a path, or returns the same instance if it doesn't need to be escaped.
+	 */
+	private static String escape(String path) {
+		if (path.indexOf(ESCAPE)<0 && path.indexOf('\n')<0 && path.indexOf('\r')<0) {
+			return path;
+		}
+		StringBuilder sb = new StringBuilder(path.length() + 8);
+		for (char c : path.toCharArray()) {
+			switch (c) {
+				case ESCAPE:
+					sb.append(ESCAPE).append(ESCAPE);
+					break;
+				case '\n':
+					sb.append(ESCAPE).append('n');
+					break;
+				case '\r':
+					sb.append(ESCAPE).append('r');
+					break;
+				default:
+					sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Unescapes a path, or returns null if the escapes are malformed.
+	 */
+	private static String unescape(String path) {
+		StringBuilder sb = new StringBuilder(path.length());
+		for (int i=0; i<path.length(); i++) {
+			char c = path.charAt(i);
+			if (c!=ESCAPE) {
+				sb.append(c);
+			} else if (++i<path.length()) {
+				switch (path.charAt(i)) {
+					case ESCAPE:
+						sb.append(ESCAPE);
+						break;
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					default:
+						return null;
+				}
+			} else {
+				return null;
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * algorithm.hashCode() + checksums.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		} else if (!(obj instanceof ChecksumManifest)) {
+			return false;
+		}
+		ChecksumManifest other = (ChecksumManifest) obj;
+		return algorithm==other.algorithm && checksums.equals(other.checksums);
+	}
+
+}
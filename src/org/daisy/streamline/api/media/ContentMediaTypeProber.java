@@ -0,0 +1,131 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Provides a media type prober that determines the media type by inspecting
+ * the first bytes of a file. Only a few common signatures are recognized. This
+ * prober is intended to be used as a fallback, see {@link MediaTypeProber#orElse(MediaTypeProber)}.
+ * 
+ * @author Joel Håkansson
+ */
+public final class ContentMediaTypeProber implements MediaTypeProber {
+	private static final int HEADER_SIZE = 512;
+	private static final byte[] PDF = ascii("%PDF-");
+	private static final byte[] ZIP = {'P', 'K', 3, 4};
+	private static final byte[] PNG = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final byte[] JPEG = {(byte)0xFF, (byte)0xD8, (byte)0xFF};
+	private static final byte[] GIF87 = ascii("GIF87a");
+	private static final byte[] GIF89 = ascii("GIF89a");
+	private static final byte[] ID3 = ascii("ID3");
+	private static final byte[] OGG = ascii("OggS");
+	private static final byte[] RIFF = ascii("RIFF");
+	private static final byte[] WAVE = ascii("WAVE");
+	private static final byte[] UTF8_BOM = {(byte)0xEF, (byte)0xBB, (byte)0xBF};
+	private static final byte[] MIMETYPE = ascii("mimetype");
+
+	private ContentMediaTypeProber() {}
+	
+	/**
+	 * Creates a new prober.
+	 * @return a new prober
+	 */
+	public static ContentMediaTypeProber newInstance() {
+		return new ContentMediaTypeProber();
+	}
+
+	@Override
+	public String probeContentType(Path path) throws IOException {
+		if (!Files.isRegularFile(path)) {
+			return null;
+		}
+		byte[] b = new byte[HEADER_SIZE];
+		int len = 0;
+		try (InputStream is = Files.newInputStream(path)) {
+			int r;
+			while (len<b.length && (r = is.read(b, len, b.length-len))>-1) {
+				len += r;
+			}
+		}
+		return probe(b, len);
+	}
+	
+	static String probe(byte[] b, int len) {
+		if (startsWith(b, len, 0, PDF)) {
+			return "application/pdf";
+		} else if (startsWith(b, len, 0, ZIP)) {
+			String type = readOcfMediaType(b, len);
+			return type!=null ? type : "application/zip";
+		} else if (startsWith(b, len, 0, PNG)) {
+			return "image/png";
+		} else if (startsWith(b, len, 0, JPEG)) {
+			return "image/jpeg";
+		} else if (startsWith(b, len, 0, GIF87) || startsWith(b, len, 0, GIF89)) {
+			return "image/gif";
+		} else if (startsWith(b, len, 0, ID3)) {
+			return "audio/mpeg";
+		} else if (startsWith(b, len, 0, OGG)) {
+			return "audio/ogg";
+		} else if (startsWith(b, len, 0, RIFF) && startsWith(b, len, 8, WAVE)) {
+			return "audio/wav";
+		}
+		int offset = startsWith(b, len, 0, UTF8_BOM) ? UTF8_BOM.length : 0;
+		String text = new String(b, offset, len-offset, StandardCharsets.ISO_8859_1).trim().toLowerCase(Locale.ROOT);
+		if (text.startsWith("<!doctype html") || text.startsWith("<html")) {
+			return "text/html";
+		} else if (text.startsWith("<?xml")) {
+			return "application/xml";
+		}
+		return null;
+	}
+	
+	/**
+	 * Reads the media type of a container that follows the OCF convention of storing
+	 * an uncompressed <code>mimetype</code> entry first in the archive, such as EPUB.
+	 */
+	private static String readOcfMediaType(byte[] b, int len) {
+		if (len<30 || le16(b, 8)!=0) {
+			// Not stored
+			return null;
+		}
+		int size = (int)Math.min(le32(b, 18), HEADER_SIZE);
+		int nameLen = le16(b, 26);
+		int extraLen = le16(b, 28);
+		int start = 30 + nameLen + extraLen;
+		if (nameLen!=MIMETYPE.length || !startsWith(b, len, 30, MIMETYPE) || size==0 || start+size>len) {
+			return null;
+		}
+		String ret = new String(b, start, size, StandardCharsets.US_ASCII).trim();
+		return ret.indexOf('/')>0 ? ret : null;
+	}
+	
+	private static int le16(byte[] b, int offset) {
+		return (b[offset] & 0xFF) | (b[offset+1] & 0xFF) << 8;
+	}
+	
+	private static long le32(byte[] b, int offset) {
+		return (le16(b, offset) | (long)le16(b, offset+2) << 16);
+	}
+	
+	private static boolean startsWith(byte[] b, int len, int offset, byte[] prefix) {
+		if (offset+prefix.length>len) {
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++) {
+			if (b[offset+i]!=prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static byte[] ascii(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+}
@@ -0,0 +1,366 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a content addressed store of files. Each file in the store is
+ * identified by a key derived from the SHA-256 digest of its contents, so that
+ * identical files are stored only once regardless of how many file sets use them.
+ * The file extension, in lower case, is part of the key, which means that identification
+ * based on the file name works with files in the store.</p>
+ * 
+ * <p>Files in the store must not be modified. The store keeps a reference count for each
+ * key. Reference counts are stored in the <code>refs</code> folder under the root, and
+ * updated while holding a lock on the store, so a store can be shared by several instances
+ * of this class, also in different processes. Files that are not referenced can be removed
+ * with {@link #gc()}.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class ContentStore {
+	private static final Logger logger = Logger.getLogger(ContentStore.class.getCanonicalName());
+	private static final String ALGORITHM = "SHA-256";
+	private static final String TEMP_PREFIX = "tmp-";
+	private static final String REFS_FOLDER = "refs";
+	private static final String LOCK_FILE = ".lock";
+	private static final int BUFFER_SIZE = 1 << 16;
+	// A SHA-256 digest in lower case hex, optionally followed by an extension
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{64}(\\.[^/\\\\]+)?");
+	// File locks are held by the JVM, so instances in the same JVM must also synchronize with each other
+	private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+	private final Path root;
+	private final Path refs;
+	private final Object monitor;
+
+	private ContentStore(Path root) {
+		this.root = root;
+		this.refs = root.resolve(REFS_FOLDER);
+		this.monitor = MONITORS.computeIfAbsent(root.toAbsolutePath().normalize(), k->new Object());
+	}
+	
+	/**
+	 * Opens a store at the specified location. The folder is created if needed.
+	 * @param root the root folder of the store
+	 * @return a store
+	 * @throws IOException if the folder cannot be created
+	 */
+	public static ContentStore open(Path root) throws IOException {
+		Files.createDirectories(root.resolve(REFS_FOLDER));
+		return new ContentStore(root);
+	}
+	
+	/**
+	 * Gets the root folder of this store.
+	 * @return the root folder
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	/**
+	 * Adds a file to the store and increments its reference count. The file is
+	 * always copied, and the key is computed from the bytes that were copied. If a
+	 * file with the same contents and extension already is in the store, the copy
+	 * is discarded.
+	 * @param source the file
+	 * @return the key of the file in the store
+	 * @throws IOException if an I/O error occurs
+	 */
+	public String put(Path source) throws IOException {
+		String ext = ExtensionMediaTypeProber.findExtension(source);
+		Path tmp = Files.createTempFile(root, TEMP_PREFIX, null);
+		try {
+			String key = DigestCache.toHex(copy(source, tmp)) + (ext!=null ? "." + ext.toLowerCase(Locale.ROOT) : "");
+			// The reference is added before the file is moved into place, so that it isn't collected
+			withLock(()->{
+				writeCount(key, readCount(key)+1);
+				return null;
+			});
+			try {
+				Path blob = getPath(key);
+				if (!Files.exists(blob)) {
+					Files.createDirectories(blob.getParent());
+					try {
+						Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE);
+						setReadOnly(blob, true);
+					} catch (FileAlreadyExistsException e) {
+						// Added by someone else in the meantime
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				release(key);
+				throw e;
+			}
+			return key;
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Copies the source to the target and returns the digest of the copied bytes.
+	 */
+	private static byte[] copy(Path source, Path target) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		try (InputStream in = Files.newInputStream(source);
+			OutputStream out = new DigestOutputStream(Files.newOutputStream(target), md)) {
+			byte[] buf = new byte[BUFFER_SIZE];
+			int len;
+			while ((len = in.read(buf))>=0) {
+				out.write(buf, 0, len);
+			}
+		}
+		return md.digest();
+	}
+	
+	/**
+	 * Gets the location of the file with the specified key.
+	 * @param key the key
+	 * @return the path to the file in the store
+	 * @throws IllegalArgumentException if the key isn't a valid key
+	 */
+	public Path getPath(String key) {
+		requireKey(key);
+		return root.resolve(key.substring(0, 2)).resolve(key.substring(2));
+	}
+
+	/**
+	 * Checks that the key has the form created by {@link #put(Path)}, so that
+	 * it can't point outside of the store.
+	 */
+	private static String requireKey(String key) {
+		if (!KEY_PATTERN.matcher(key).matches()) {
+			throw new IllegalArgumentException("Not a valid key: " + key);
+		}
+		return key;
+	}
+	
+	/**
+	 * Increments the reference count of the specified key.
+	 * @param key the key
+	 * @throws IllegalArgumentException if the key isn't valid or isn't referenced
+	 * @throws UncheckedIOException if the reference count cannot be updated
+	 */
+	public void retain(String key) {
+		requireKey(key);
+		withLockUnchecked(()->{
+			int count = readCount(key);
+			if (count==0) {
+				throw new IllegalArgumentException("Not referenced: " + key);
+			}
+			writeCount(key, count+1);
+			return null;
+		});
+	}
+	
+	/**
+	 * Decrements the reference count of the specified key.
+	 * @param key the key
+	 * @throws UncheckedIOException if the reference count cannot be updated
+	 */
+	public void release(String key) {
+		requireKey(key);
+		withLockUnchecked(()->{
+			int count = readCount(key);
+			if (count>0) {
+				writeCount(key, count-1);
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Gets the reference count of the specified key.
+	 * @param key the key
+	 * @return the reference count
+	 * @throws UncheckedIOException if the reference count cannot be read
+	 */
+	public int getReferenceCount(String key) {
+		requireKey(key);
+		try {
+			return readCount(key);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * <p>Removes all files that are not referenced from the store.</p>
+	 * 
+	 * <p>A file is only removed if it has a reference count record that has dropped
+	 * to zero. Files without a record, for example files added by other means, are
+	 * never removed. Neither are files that are known to have other hard links.</p>
+	 * 
+	 * @return the number of removed files
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int gc() throws IOException {
+		return withLock(()->{
+			List<Path> remove;
+			try (Stream<Path> s = Files.walk(root)) {
+				remove = s.filter(p->Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)).filter(p->{
+					Path rel = root.relativize(p);
+					// Only files in the store's layout are considered
+					return rel.getNameCount()==2 && rel.getName(0).toString().length()==2;
+				}).collect(Collectors.toList());
+			}
+			int removed = 0;
+			for (Path p : remove) {
+				Path rel = root.relativize(p);
+				String key = rel.getName(0).toString() + rel.getName(1).toString();
+				Path ref = refs.resolve(key);
+				if (Files.exists(ref) && readCount(key)==0 && !isLinked(p)) {
+					setReadOnly(p, false);
+					Files.delete(p);
+					Files.delete(ref);
+					removed++;
+				}
+			}
+			return removed;
+		});
+	}
+
+	private int readCount(String key) throws IOException {
+		try {
+			String value = new String(Files.readAllBytes(refs.resolve(key)), StandardCharsets.US_ASCII).trim();
+			return Integer.parseInt(value);
+		} catch (NoSuchFileException e) {
+			return 0;
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt reference count: " + key, e);
+		}
+	}
+
+	private void writeCount(String key, int count) throws IOException {
+		// Written to a temporary file and moved into place, so that readers never see a partial value
+		Path tmp = Files.createTempFile(refs, TEMP_PREFIX, null);
+		try {
+			Files.write(tmp, Integer.toString(count).getBytes(StandardCharsets.US_ASCII));
+			Files.move(tmp, refs.resolve(key), StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private interface Action<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Runs the action while holding the lock on the store.
+	 */
+	private <T> T withLock(Action<T> action) throws IOException {
+		synchronized (monitor) {
+			try (FileChannel fc = FileChannel.open(root.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock l = fc.lock();
+				try {
+					return action.run();
+				} finally {
+					l.release();
+				}
+			}
+		}
+	}
+
+	private <T> T withLockUnchecked(Action<T> action) {
+		try {
+			return withLock(action);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns true if the file is known to have more than one link. 
+	 */
+	private static boolean isLinked(Path p) throws IOException {
+		if (p.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+			return ((Number)Files.getAttribute(p, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue()>1;
+		}
+		return false;
+	}
+
+	private static void setReadOnly(Path p, boolean value) {
+		try {
+			Set<String> views = p.getFileSystem().supportedFileAttributeViews();
+			if (views.contains("posix")) {
+				Set<PosixFilePermission> perms = Files.getPosixFilePermissions(p);
+				if (value) {
+					perms.removeAll(Arrays.asList(PosixFilePermission.OWNER_WRITE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE));
+				} else {
+					perms.add(PosixFilePermission.OWNER_WRITE);
+				}
+				Files.setPosixFilePermissions(p, perms);
+			} else if (views.contains("dos")) {
+				Files.setAttribute(p, "dos:readonly", value);
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Could not change write permission: " + p, e);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the resources of the specified file set to this store and returns a file set
+	 * that refers to them. The returned file set is located at the specified base folder,
+	 * but all of its resources are located in the store. To place the resources in the
+	 * base folder, use {@link DefaultFileSet#copy(FileSet, BaseFolder, CopyStrategy)}.
+	 * @param source the file set
+	 * @param target the base folder of the new file set
+	 * @return a new file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	public StoredFileSet store(FileSet source, BaseFolder target) throws IOException {
+		Map<String, String> keys = new ConcurrentHashMap<>();
+		try {
+			for (String path : source.getResourcePaths()) {
+				AnnotatedFile f = source.getResourceForKey(path).get();
+				keys.put(path, put(f.getPath()));
+			}
+		} catch (IOException e) {
+			keys.values().forEach(this::release);
+			throw e;
+		}
+		return new StoredFileSet(this, source, target, keys);
+	}
+	
+	@Override
+	public String toString() {
+		return "ContentStore [root=" + root + "]";
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.daisy.streamline.api.media;
+
+/**
+ * Defines methods for copying a file, see {@link CopyStrategy}.
+ * @author Joel Håkansson
+ */
+public enum CopyMethod {
+	/**
+	 * Creates a hard link to the original file. No data is copied, but
+	 * the file system must support hard links and the original and the
+	 * copy must be on the same file store. Since the original and the copy
+	 * is the same file, this method must only be used if neither file is
+	 * modified afterwards. To enforce this, the method fails unless the
+	 * original is read-only.
+	 */
+	HARD_LINK,
+	/**
+	 * Copies the file using {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+	 * which allows the operating system to copy the data without passing it through
+	 * the Java heap.
+	 */
+	TRANSFER,
+	/**
+	 * Copies the file using {@link java.nio.file.Files#copy(java.nio.file.Path, java.nio.file.Path, java.nio.file.CopyOption...)}.
+	 */
+	COPY
+}
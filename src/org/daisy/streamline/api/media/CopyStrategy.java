@@ -0,0 +1,173 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Provides a strategy for copying files. A strategy is an ordered list of
+ * copy methods. The methods are tried in order until one of them succeeds.</p>
+ * 
+ * <p>Note that the JDK doesn't provide access to copy-on-write clones of files.
+ * On file systems that support it, the operating system may use such clones 
+ * when {@link CopyMethod#TRANSFER} or {@link CopyMethod#COPY} is used.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class CopyStrategy {
+	private static final Logger logger = Logger.getLogger(CopyStrategy.class.getCanonicalName());
+	private final List<CopyMethod> methods;
+
+	private CopyStrategy(List<CopyMethod> methods) {
+		this.methods = methods;
+	}
+	
+	/**
+	 * Creates a new copy strategy with the specified methods.
+	 * @param methods the methods, in order of preference
+	 * @return a new copy strategy
+	 * @throws IllegalArgumentException if no methods are specified
+	 */
+	public static CopyStrategy with(CopyMethod ... methods) {
+		if (methods.length==0) {
+			throw new IllegalArgumentException("No methods.");
+		}
+		return new CopyStrategy(Collections.unmodifiableList(Arrays.asList(methods.clone())));
+	}
+	
+	/**
+	 * Gets the methods of this strategy.
+	 * @return the methods, in order of preference
+	 */
+	public List<CopyMethod> getMethods() {
+		return methods;
+	}
+	
+	/**
+	 * Copies the source to the target, replacing the target if it exists. The parent
+	 * folder of the target must exist.
+	 * @param source the source file
+	 * @param target the target file
+	 * @return the method that was used
+	 * @throws IOException if the file could not be copied with any of the methods
+	 */
+	public CopyMethod copy(Path source, Path target) throws IOException {
+		IOException ex = null;
+		for (CopyMethod m : methods) {
+			try {
+				copy(m, source, target);
+				return m;
+			} catch (IOException | UnsupportedOperationException e) {
+				if (logger.isLoggable(Level.FINE)) {
+					logger.log(Level.FINE, "Failed to copy " + source + " with " + m, e);
+				}
+				IOException e2 = e instanceof IOException ? (IOException)e : new IOException(e);
+				if (ex==null) {
+					ex = e2;
+				} else {
+					ex.addSuppressed(e2);
+				}
+			}
+		}
+		throw ex;
+	}
+	
+	private static void copy(CopyMethod method, Path source, Path target) throws IOException {
+		switch (method) {
+			case HARD_LINK:
+				link(source, target);
+				break;
+			case TRANSFER:
+				transfer(source, target);
+				break;
+			case COPY: default:
+				Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Copies the source to a temporary file next to the target, which is then moved into place.
+	 * The target is never opened for writing, since it may be a link to the source.
+	 */
+	private static void transfer(Path source, Path target) throws IOException {
+		Path tmp = target.resolveSibling(target.getFileName().toString() + ".transfer");
+		try {
+			try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				long size = in.size();
+				long pos = 0;
+				while (pos<size) {
+					long n = in.transferTo(pos, size-pos, out);
+					if (n<=0) {
+						throw new IOException("Source truncated while copying: " + source);
+					}
+					pos += n;
+				}
+			}
+			replace(tmp, target);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Links the target to the source. The link is created next to the target and then
+	 * moved into place, so that an existing target is left as is if the link can't be created.
+	 */
+	private static void link(Path source, Path target) throws IOException {
+		if (!isReadOnly(source)) {
+			throw new IOException("Source is writable: " + source);
+		}
+		Path tmp = target.resolveSibling(target.getFileName().toString() + ".link");
+		Files.deleteIfExists(tmp);
+		Files.createLink(tmp, source);
+		try {
+			replace(tmp, target);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private static void replace(Path tmp, Path target) throws IOException {
+		try {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns true if the file can't be written to, according to its attributes.
+	 * Files.isWritable isn't used, since it reports what the current user is
+	 * allowed to do rather than what the file permits.
+	 */
+	static boolean isReadOnly(Path p) throws IOException {
+		Set<String> views = p.getFileSystem().supportedFileAttributeViews();
+		if (views.contains("posix")) {
+			Set<PosixFilePermission> perms = Files.getPosixFilePermissions(p);
+			return !perms.contains(PosixFilePermission.OWNER_WRITE)
+					&& !perms.contains(PosixFilePermission.GROUP_WRITE)
+					&& !perms.contains(PosixFilePermission.OTHERS_WRITE);
+		} else if (views.contains("dos")) {
+			return (Boolean)Files.getAttribute(p, "dos:readonly");
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "CopyStrategy " + methods;
+	}
+
+}
@@ -13,6 +13,8 @@ import java.util.Objects;
  * @author Joel Håkansson
  */
 public class DefaultAnnotatedFile implements AnnotatedFile {
+	private static final MediaTypeProber DEFAULT_PROBER = ExtensionMediaTypeProber.newInstance()
+			.orElse(CachingMediaTypeProber.with(Files::probeContentType));
 	private final Path f;
 	private final FileDetails details;
 	
@@ -144,8 +146,8 @@ public class DefaultAnnotatedFile implements AnnotatedFile {
 		}
 		
 		/**
-		 * Sets the media type to the media type detected by {@link java.nio.file.Files#probeContentType(java.nio.file.Path)} on
-		 * the specified file.
+		 * Sets the media type to the media type detected by the default prober on
+		 * the specified file, see {@link #mediaType(Path)}.
 		 * @param value the file to use
 		 * @return returns this builder
 		 * @throws IOException if an I/O error occurs
@@ -153,19 +155,35 @@ public class DefaultAnnotatedFile implements AnnotatedFile {
 		 */
 		@Deprecated
 		public Builder mediaType(File value) throws IOException {
-			details.mediaType(Files.probeContentType(value.toPath()));
-			return this;
+			return mediaType(value.toPath());
 		}
 		
 		/**
-		 * Sets the media type to the media type detected by {@link java.nio.file.Files#probeContentType(java.nio.file.Path)} on
-		 * the specified file.
+		 * Sets the media type to the media type detected by the default prober on
+		 * the specified file. The default prober uses a built-in table of file extensions.
+		 * If the extension isn't in the table, {@link java.nio.file.Files#probeContentType(java.nio.file.Path)}
+		 * is used. The result of the latter is remembered for each extension.
+		 * Since the table takes precedence, the media type may differ from the one
+		 * returned by <code>Files.probeContentType</code> on this platform. To get that
+		 * media type, use <code>mediaType(value, Files::probeContentType)</code>.
 		 * @param value the path to use
 		 * @return returns this builder
 		 * @throws IOException if an I/O error occurs
 		 */
 		public Builder mediaType(Path value) throws IOException {
-			details.mediaType(Files.probeContentType(value));
+			return mediaType(value, DEFAULT_PROBER);
+		}
+		
+		/**
+		 * Sets the media type to the media type detected by the specified prober on
+		 * the specified file.
+		 * @param value the path to use
+		 * @param prober the prober
+		 * @return returns this builder
+		 * @throws IOException if an I/O error occurs
+		 */
+		public Builder mediaType(Path value, MediaTypeProber prober) throws IOException {
+			details.mediaType(prober.probeContentType(value));
 			return this;
 		}
 		
@@ -238,7 +256,7 @@ public class DefaultAnnotatedFile implements AnnotatedFile {
 	
 	/**
 	 * Creates a new DefaultAnnotatedFile with the properties of the specified file.
-	 * The media type will be probed by {@link java.nio.file.Files#probeContentType(java.nio.file.Path)}.
+	 * The media type will be probed by the default prober, see {@link Builder#mediaType(Path)}.
 	 * If this process is unsuccessful, the media type will be null. For more control over the 
 	 * process, use {@link #with(File)}.
 	 * @param f the file
@@ -258,16 +276,31 @@ public class DefaultAnnotatedFile implements AnnotatedFile {
 	
 	/**
 	 * Creates a new DefaultAnnotatedFile with the properties of the specified file.
-	 * The media type will be probed by {@link java.nio.file.Files#probeContentType(java.nio.file.Path)}.
+	 * The media type is probed by the default prober, which looks up the file extension
+	 * in a built-in table first and uses {@link java.nio.file.Files#probeContentType(Path)}
+	 * for extensions that aren't in the table, see {@link Builder#mediaType(Path)}.
+	 * To use another prober, call {@link #create(Path, MediaTypeProber)}.
 	 * If this process is unsuccessful, the media type will be null. For more control over the 
-	 * process, use {@link #with(File)}.
+	 * process, use {@link #with(Path)}.
 	 * @param f the path
 	 * @return returns a new DefaultAnnotatedFile instance
 	 */
 	public static DefaultAnnotatedFile create(Path f) {
+		return create(f, DEFAULT_PROBER);
+	}
+	
+	/**
+	 * Creates a new DefaultAnnotatedFile with the properties of the specified file.
+	 * The media type will be probed by the specified prober.
+	 * If this process is unsuccessful, the media type will be null.
+	 * @param f the path
+	 * @param prober the prober
+	 * @return returns a new DefaultAnnotatedFile instance
+	 */
+	public static DefaultAnnotatedFile create(Path f, MediaTypeProber prober) {
 		Builder ret = new Builder(f).extension(f);
 		try {
-			ret.mediaType(f);
+			ret.mediaType(f, prober);
 		} catch (IOException e) {
 			// no action needed
 		}
@@ -34,7 +34,8 @@ public final class DefaultAnnotatedInputStream implements AnnotatedInputStream {
 		
 		private static String findExtension(String inp) {
 			int inx = inp.lastIndexOf('.');
-			return (inx>-1 && inx<inp.length()-1)?inp.substring(inx + 1):null;
+			// Only consider the last segment of the system id
+			return (inx>-1 && inx>inp.lastIndexOf('/') && inx<inp.length()-1)?inp.substring(inx + 1):null;
 		}
 		
 		/**
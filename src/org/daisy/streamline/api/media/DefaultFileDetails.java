@@ -1,7 +1,5 @@
 package org.daisy.streamline.api.media;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -21,7 +19,7 @@ public final class DefaultFileDetails implements FileDetails {
 		private String formatName = null;
 		private String extension = null;
 		private String mediaType = null;
-		private Map<String, Object> props = new HashMap<>();
+		private PropertyMap props = PropertyMap.empty();
 
 		/**
 		 * Sets the format name.
@@ -61,18 +59,20 @@ public final class DefaultFileDetails implements FileDetails {
 		 * @return returns this builder
 		 */
 		public Builder property(String key, Object value) {
-			props.put(key, value);
+			props = props.plus(key, value);
 			return this;
 		}
 		
 		/**
 		 * Adds the supplied properties to this builder. All values in
-		 * this map must be immutable.
+		 * this map must be immutable. If the map is the properties
+		 * of another {@link DefaultFileDetails}, it is shared rather
+		 * than copied.
 		 * @param values the value to add
 		 * @return returns this builder
 		 */
 		public Builder properties(Map<String, Object> values) {
-			props.putAll(values);
+			props = props.plusAll(values);
 			return this;
 		}
 		
@@ -90,7 +90,8 @@ public final class DefaultFileDetails implements FileDetails {
 		this.formatName = builder.formatName;
 		this.extension = builder.extension;
 		this.mediaType = builder.mediaType;
-		this.props = Collections.unmodifiableMap(builder.props);
+		// The map is immutable and can be shared with builders and other instances
+		this.props = builder.props;
 	}
 	
 	/**
@@ -1,17 +1,25 @@
 package org.daisy.streamline.api.media;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -26,7 +34,10 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	private final BaseFolder baseFolder;
 	private final String manifestPath;
 	private final Optional<FormatIdentifier> formatIdentifier;
-	private final Map<String, AnnotatedFile> resources;
+	private final ResourceIndex resources;
+	private final CopyStrategy copyStrategy;
+	private final FileMover fileMover;
+	private final Map<String, CopyMethod> copyMethods;
 	
 	/**
 	 * Provides a builder of file sets.
@@ -36,6 +47,8 @@ public final class DefaultFileSet implements ModifiableFileSet {
 		private final String manifestPath;
 		private FormatIdentifier formatIdentifier  = null;
 		private final Map<String, AnnotatedFile> resources = new HashMap<>();
+		private CopyStrategy copyStrategy = CopyStrategy.with(CopyMethod.COPY);
+		private FileMover fileMover = null;
 
 		/**
 		 * Creates a new builder with the specified base folder and manifest.
@@ -55,7 +68,7 @@ public final class DefaultFileSet implements ModifiableFileSet {
 		 */
 		public Builder(BaseFolder baseFolder, AnnotatedFile manifest, String manifestPath) {
 			this.baseFolder = baseFolder;
-			this.manifestPath = manifestPath;
+			this.manifestPath = normalizeRelativePath(baseFolder.getPath(), manifestPath);
 			add(manifest, manifestPath);
 		}
 		
@@ -92,6 +105,30 @@ public final class DefaultFileSet implements ModifiableFileSet {
 			return this;
 		}
 
+		/**
+		 * Sets the copy strategy used when resources are copied into the file set,
+		 * see {@link DefaultFileSet#internalizeCopy(String)}. The default strategy
+		 * uses {@link CopyMethod#COPY}.
+		 * @param value the copy strategy
+		 * @return this builder
+		 */
+		public Builder copyStrategy(CopyStrategy value) {
+			this.copyStrategy = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the file mover used when resources are moved into the file set,
+		 * see {@link DefaultFileSet#internalize(String)}. By default, a file mover
+		 * with the default settings is used.
+		 * @param value the file mover
+		 * @return this builder
+		 */
+		public Builder fileMover(FileMover value) {
+			this.fileMover = Objects.requireNonNull(value);
+			return this;
+		}
+
 		/**
 		 * Adds a resource to this builder.
 		 * @param f the file
@@ -134,6 +171,50 @@ public final class DefaultFileSet implements ModifiableFileSet {
 			return this;
 		}
 
+		/**
+		 * Adds all regular files in the specified directory and its sub directories
+		 * to this builder, walking the directory in parallel. The manifest is not
+		 * replaced if it is found in the directory.
+		 * @param dir the directory
+		 * @return this builder
+		 * @throws IllegalArgumentException if the directory isn't a descendant of the base folder
+		 * @throws IOException if the directory cannot be walked
+		 */
+		public Builder addAll(Path dir) throws IOException {
+			return addAll(dir, DirectoryImport.newInstance());
+		}
+
+		/**
+		 * Adds the regular files in the specified directory and its sub directories
+		 * to this builder, as specified by the supplied options. The manifest is not
+		 * replaced if it is found in the directory.
+		 * @param dir the directory
+		 * @param options the options
+		 * @return this builder
+		 * @throws IllegalArgumentException if the directory isn't a descendant of the base folder
+		 * @throws NullPointerException if the annotator of the options returns null
+		 * @throws IOException if the directory cannot be walked
+		 */
+		public Builder addAll(Path dir, DirectoryImport options) throws IOException {
+			// Files found below the directory are descendants of the base folder as well
+			Path prefix = baseFolder.getPath().toAbsolutePath().normalize().relativize(
+					requireDescendant(baseFolder.getPath(), dir).toAbsolutePath().normalize());
+			Predicate<Path> filter = options.newFilter(dir.getFileSystem());
+			Function<Path, AnnotatedFile> annotator = p->Objects.requireNonNull(options.getAnnotator().apply(p), ()->"The annotator returned null for " + p);
+			Map<String, AnnotatedFile> found;
+			try (Stream<Path> s = DirectorySpliterator.stream(dir, options.isParallel())) {
+				// Each thread collects into its own map, the maps are merged when the threads are done
+				found = s.filter(p->filter.test(dir.relativize(p)))
+						.collect(Collectors.toMap(p->prefix.resolve(dir.relativize(p)).toString(), annotator));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			// Both keys are normalized
+			found.remove(manifestPath);
+			resources.putAll(found);
+			return this;
+		}
+
 		/**
 		 * Builds the file set.
 		 * @return a new file set
@@ -147,7 +228,11 @@ public final class DefaultFileSet implements ModifiableFileSet {
 		this.baseFolder = builder.baseFolder;
 		this.manifestPath = builder.manifestPath;
 		this.formatIdentifier = Optional.ofNullable(builder.formatIdentifier);
-		this.resources = new HashMap<>(builder.resources);
+		this.resources = new ResourceIndex(builder.baseFolder.getPath());
+		builder.resources.forEach(this.resources::put);
+		this.copyStrategy = builder.copyStrategy;
+		this.fileMover = builder.fileMover!=null ? builder.fileMover : FileMover.newInstance();
+		this.copyMethods = new ConcurrentHashMap<>();
 	}
 
 	/**
@@ -208,7 +293,7 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	
 	@Override
 	public boolean isManifest(String path) {
-		return resources.containsKey(normalizeRelativePath(baseFolder.getPath(), path));
+		return resources.find(path)!=null;
 	}
 
 	@Override
@@ -218,7 +303,19 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	
 	@Override
 	public Set<String> getResourcePaths() {
-		return Collections.unmodifiableSet(resources.keySet());
+		return resources.keySet();
+	}
+	
+	/**
+	 * Gets the resource paths below the specified folder. The time it takes 
+	 * is proportional to the size of the result, rather than the number of
+	 * resources in the file set.
+	 * @param folder the path of the folder, relative to the base folder. This path
+	 * 		may be normalized, see {@link #getResource(String)}.
+	 * @return a set of resource paths
+	 */
+	public Set<String> getResourcePaths(String folder) {
+		return Collections.unmodifiableSet(resources.keysBelow(folder));
 	}
 	
 	@Override
@@ -228,7 +325,7 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	
 	@Override
 	public Optional<AnnotatedFile> getResource(String path) {
-		return Optional.ofNullable(resources.get(normalizeRelativePath(baseFolder.getPath(), path)));
+		return Optional.ofNullable(resources.find(path));
 	}
 	
 	@Override
@@ -247,7 +344,23 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	 * @throws IOException if an I/O error occurs
 	 */
 	public static DefaultFileSet copy(FileSet source, BaseFolder target) throws IOException {
-		return copyInner(source, source.getManifestPath(), target);
+		return copy(source, target, CopyStrategy.with(CopyMethod.COPY));
+	}
+	
+	/**
+	 * Creates a new file set at the specified location using the specified copy
+	 * strategy. See {@link #copy(FileSet, BaseFolder)}. The returned file set 
+	 * uses the same strategy. The method that was used for each resource is 
+	 * available from {@link #getCopyMethod(String)}.
+	 * @param source the original file set
+	 * @param target the new location, this must point to an existing directory. It is recommended,
+	 * although not strictly required, that the folder is also empty.
+	 * @param strategy the copy strategy
+	 * @return the created file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static DefaultFileSet copy(FileSet source, BaseFolder target, CopyStrategy strategy) throws IOException {
+		return copyInner(source, source.getManifestPath(), target, strategy);
 	}
 
 	/**
@@ -273,15 +386,16 @@ public final class DefaultFileSet implements ModifiableFileSet {
 				.relativize(manifestPath)
 				.normalize()
 				.toString();
-		return copyInner(source, manifestPathString, target);
+		return copyInner(source, manifestPathString, target, CopyStrategy.with(CopyMethod.COPY));
 	}
 
-	private static DefaultFileSet copyInner(FileSet source, String manifestPath, BaseFolder target) throws IOException {
+	private static DefaultFileSet copyInner(FileSet source, String manifestPath, BaseFolder target, CopyStrategy strategy) throws IOException {
 		Files.createDirectories(target.getPath());
 		// Create a new file set at the specified location
 		// All other properties are copied
 		DefaultFileSet.Builder builder = new DefaultFileSet.Builder(target, source.getManifest(), manifestPath);
 		builder.formatIdentifier(source.getFormatIdentifier().orElse(null));
+		builder.copyStrategy(strategy);
 		// Add all resources from the original file set
 		source.getResourcePaths().stream().forEach(v->{
 			if (!v.equals(source.getManifestPath())) {
@@ -302,46 +416,54 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	}
 
 	private static Optional<Path> findCommonAncestor(Stream<Path> resources) {
-		// Map to a set of normalized paths
-		Set<Path> tmp = resources
-				.map(v->v.normalize())
-				.collect(Collectors.toSet());
-		if (tmp.size()==1) {
-			// Easy, only one resource
-			return Optional.ofNullable(tmp.iterator().next().getParent());
-		}
-		if (tmp.stream().map(v->v.getRoot()).distinct().count()>1) {
-			return Optional.empty();
-		}
-		int maxNameCount = tmp.stream()
-				.mapToInt(v->v.getNameCount())
-				.max()
-				.orElse(0);
-		// Look for shared ancestors
-		int ret = 0;
-		for (int i=1;;i++) {
-			int ii = i;
-			if (i<maxNameCount && tmp.stream()
-					// gets the ancestor at the current level
-					.map(v->v.subpath(0, Math.min(ii, v.getNameCount()-1)))
-					.distinct()
-					.count()==1) {
-				ret = i;
-			} else {
-				break;
+		CommonAncestor ret = new CommonAncestor();
+		resources.forEachOrdered(ret::add);
+		return ret.get();
+	}
+	
+	/**
+	 * Computes the common ancestor of a number of paths incrementally, by keeping
+	 * the length of the longest common prefix of their parents. Each path is
+	 * compared to the first path only, which makes the total time linear in the
+	 * number of path segments.
+	 */
+	private static class CommonAncestor {
+		private Path first = null;
+		private int length = 0;
+		private boolean distinct = false;
+		private boolean differentRoots = false;
+
+		private void add(Path path) {
+			Path p = path.normalize();
+			if (first==null) {
+				first = p;
+				length = p.getNameCount()-1;
+			} else if (!differentRoots && !p.equals(first)) {
+				distinct = true;
+				if (!Objects.equals(p.getRoot(), first.getRoot())) {
+					differentRoots = true;
+				} else {
+					int max = Math.min(length, p.getNameCount()-1);
+					int i = 0;
+					while (i<max && p.getName(i).equals(first.getName(i))) {
+						i++;
+					}
+					length = i;
+				}
 			}
 		}
-		if (ret==0) {
-			return Optional.empty();
-		} else {
-			// All resources are equal up to the end index, so just use any
-			Path p = tmp.iterator().next();
-			Path sub = p.subpath(0, ret);
-			// There's no reason for sub to be null here, but it doesn't hurt to check it
-			if (sub==null) {
+
+		private Optional<Path> get() {
+			if (first==null || differentRoots) {
+				return Optional.empty();
+			} else if (!distinct) {
+				// Easy, only one resource
+				return Optional.ofNullable(first.getParent());
+			} else if (length==0) {
 				return Optional.empty();
 			} else {
-				Path root = p.getRoot();
+				Path sub = first.subpath(0, length);
+				Path root = first.getRoot();
 				return root==null ? Optional.of(sub) : Optional.of(root.resolve(sub));
 			}
 		}
@@ -349,31 +471,86 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	
 	@Override
 	public Stream<AnnotatedFile> streamExternal() {
-		return resources.values().stream()
+		return resources.values()
 			.filter(v->!isDescendant(baseFolder.getPath(), v.getPath()));
 	}
 
+	/**
+	 * {@inheritDoc} The method that was used for each resource is available
+	 * from {@link #getCopyMethod(String)}.
+	 */
 	@Override
 	public void internalizeAllCopy() {
-		resources.entrySet().forEach(r->{
-			internalizeCopy(r.getKey(), r.getValue()).ifPresent(f->r.setValue(f));
+		resources.forEach((k, v)->{
+			internalizeCopy(k, v).ifPresent(tr->update(k, tr));
 		});
 	}
 	
+	/**
+	 * Gets the method that was used to copy the specified resource into this file set.
+	 * @param path the resource path
+	 * @return the copy method, or an empty optional if the resource hasn't been copied
+	 * 		into this file set
+	 */
+	public Optional<CopyMethod> getCopyMethod(String path) {
+		return Optional.ofNullable(copyMethods.get(path));
+	}
+	
+	/**
+	 * <p>Copies all external resources into this file set using the specified executor, 
+	 * see {@link #internalizeAllCopy()}. Target folders are created before
+	 * any files are copied. This method returns when all resources have been processed.</p>
+	 * 
+	 * <p>To limit the number of concurrent I/O operations, use an executor with a bounded
+	 * number of threads.</p>
+	 * 
+	 * @param executor the executor
+	 * @return a report of the internalized resources
+	 */
+	public InternalizationReport internalizeAllCopy(Executor executor) {
+		return internalizeAll(v->true, this::copy, executor);
+	}
+	
+	@Override
+	public CompletableFuture<InternalizationReport> internalizeAllCopyAsync(Executor executor, InternalizationListener listener) {
+		return internalizeAllAsync(v->true, this::copy, executor, listener);
+	}
+	
 	@Override
 	public void internalizeBelow(Path base) {
-		resources.entrySet().forEach(r->{
-			if (isDescendant(base, r.getValue().getPath())) {
-				internalize(r.getKey(), r.getValue()).ifPresent(v->r.setValue(v));
+		resources.forEach((k, v)->{
+			if (isDescendant(base, v.getPath())) {
+				internalize(k, v).ifPresent(tr->update(k, tr));
 			}
 		});
 	}
+	
+	/**
+	 * <p>Moves all resources located in the specified directory into this file set using 
+	 * the specified executor, see {@link #internalizeBelow(Path)}. Target folders are created before
+	 * any files are moved. This method returns when all resources have been processed.</p>
+	 * 
+	 * <p>To limit the number of concurrent I/O operations, use an executor with a bounded
+	 * number of threads.</p>
+	 * 
+	 * @param base the directory
+	 * @param executor the executor
+	 * @return a report of the internalized resources
+	 */
+	public InternalizationReport internalizeBelow(Path base, Executor executor) {
+		return internalizeAll(v->isDescendant(base, v), this::move, executor);
+	}
+
+	@Override
+	public CompletableFuture<InternalizationReport> internalizeBelowAsync(Path base, Executor executor, InternalizationListener listener) {
+		return internalizeAllAsync(v->isDescendant(base, v), this::move, executor, listener);
+	}
 
 	@Override
 	public boolean internalizeCopy(String path) {
-		Optional<AnnotatedFile> res = Optional.ofNullable(resources.get(path)).flatMap(f->internalizeCopy(path, f));
+		Optional<Transferred> res = Optional.ofNullable(resources.get(path)).flatMap(f->internalizeCopy(path, f));
 		if (res.isPresent()) {
-			resources.put(path, res.get());
+			update(path, res.get());
 			return true;
 		}
 		return false;
@@ -381,44 +558,174 @@ public final class DefaultFileSet implements ModifiableFileSet {
 	
 	@Override
 	public boolean internalize(String path) {
-		Optional<AnnotatedFile> res = Optional.ofNullable(resources.get(path)).flatMap(v->internalize(path, v));
+		Optional<Transferred> res = Optional.ofNullable(resources.get(path)).flatMap(v->internalize(path, v));
 		if (res.isPresent()) {
-			resources.put(path, res.get());
+			update(path, res.get());
 			return true;
 		}
 		return false;
 	}
 	
-	private Optional<AnnotatedFile> internalizeCopy(String path, AnnotatedFile f) {
+	private Optional<Transferred> internalizeCopy(String path, AnnotatedFile f) {
+		return newLocation(path, f).flatMap(newLocation->{
+			try {
+				Files.createDirectories(newLocation.getParent());
+				return Optional.of(copy(f, newLocation));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not copy file: " + f.getPath(), e);
+				return Optional.empty();
+			}
+		});
+	}
+	
+	private Optional<Transferred> internalize(String path, AnnotatedFile f) {
+		return newLocation(path, f).flatMap(newLocation->{
+			try {
+				Files.createDirectories(newLocation.getParent());
+				return Optional.of(move(f, newLocation));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not move file: " + f.getPath(), e);
+				return Optional.empty();
+			}
+		});
+	}
+	
+	/**
+	 * Gets the location inside this file set for the specified resource, if
+	 * the resource is external and the location is a descendant of the base folder.
+	 */
+	private Optional<Path> newLocation(String path, AnnotatedFile f) {
 		if (!isDescendant(baseFolder.getPath(), f.getPath())) {
 			Path newLocation = baseFolder.getPath().resolve(path);
 			if (isDescendant(baseFolder.getPath(), newLocation)) {
-				try {
-					Files.createDirectories(newLocation.getParent());
-					Files.copy(f.getPath(), newLocation, StandardCopyOption.REPLACE_EXISTING);
-					return Optional.of(DefaultAnnotatedFile.with(f).file(newLocation).build());
-				} catch (IOException e) {
-					logger.log(Level.WARNING, "Could not copy file: " + f.getPath(), e);
-				}				
+				return Optional.of(newLocation);
 			}
 		}
 		return Optional.empty();
 	}
 	
-	private Optional<AnnotatedFile> internalize(String path, AnnotatedFile f) {
-		if (!isDescendant(baseFolder.getPath(), f.getPath())) {
-			Path newLocation = baseFolder.getPath().resolve(path);
-			if (isDescendant(baseFolder.getPath(), newLocation)) {
-				try {
-					Files.createDirectories(newLocation.getParent());
-					Files.move(f.getPath(), newLocation, StandardCopyOption.REPLACE_EXISTING);
-					return Optional.of(DefaultAnnotatedFile.with(f).file(newLocation).build());
-				} catch (IOException e) {
-					logger.log(Level.WARNING, "Could not move file: " + f.getPath(), e);
-				}
+	private Transferred copy(AnnotatedFile f, Path newLocation) throws IOException {
+		CopyMethod method = copyStrategy.copy(f.getPath(), newLocation);
+		return new Transferred(DefaultAnnotatedFile.with(f).file(newLocation).build(), method);
+	}
+	
+	private Transferred move(AnnotatedFile f, Path newLocation) throws IOException {
+		fileMover.move(f.getPath(), newLocation);
+		return new Transferred(DefaultAnnotatedFile.with(f).file(newLocation).build(), null);
+	}
+	
+	private void update(String path, Transferred tr) {
+		resources.put(path, tr.file);
+		if (tr.method!=null) {
+			copyMethods.put(path, tr.method);
+		} else {
+			copyMethods.remove(path);
+		}
+	}
+	
+	private interface Transfer {
+		Transferred apply(AnnotatedFile f, Path newLocation) throws IOException;
+	}
+	
+	private static class Transferred {
+		private final AnnotatedFile file;
+		private final CopyMethod method;
+		private Transferred(AnnotatedFile file, CopyMethod method) {
+			this.file = file;
+			this.method = method;
+		}
+	}
+	
+	private InternalizationReport internalizeAll(Predicate<Path> filter, Transfer transfer, Executor executor) {
+		return internalizeAllAsync(filter, transfer, executor, (k, f)->{}).join();
+	}
+	
+	private CompletableFuture<InternalizationReport> internalizeAllAsync(Predicate<Path> filter, Transfer transfer, Executor executor, InternalizationListener listener) {
+		InternalizationReport.Builder report = new InternalizationReport.Builder();
+		// Planning touches the file system too, so it runs on the executor
+		return CompletableFuture.supplyAsync(()->plan(filter, report, listener), executor).thenCompose(targets->{
+			// Transfer the files. Replacing the value of an existing key in the index 
+			// is safe, so each resource is updated as soon as it has been transferred
+			List<CompletableFuture<Void>> tasks = new ArrayList<>();
+			targets.forEach((k, t)->{
+				AnnotatedFile f = resources.get(k);
+				tasks.add(CompletableFuture.supplyAsync(()->{
+					try {
+						return transfer.apply(f, t);
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				}, executor).handle((tr, ex)->{
+					if (ex==null) {
+						update(k, tr);
+						synchronized (report) {
+							if (tr.method!=null) {
+								report.internalized(k, tr.method);
+							} else {
+								report.internalized(k);
+							}
+						}
+						notify(()->listener.internalized(k, tr.file));
+					} else {
+						Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+						failed(report, listener, k, cause instanceof UncheckedIOException ? ((UncheckedIOException)cause).getCause() : new IOException(cause));
+					}
+					return null;
+				}));
+			});
+			return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()]));
+		}).thenApply(v->{
+			synchronized (report) {
+				return report.build();
+			}
+		});
+	}
+	
+	/**
+	 * Finds the resources to transfer and creates their target folders. Resources
+	 * whose folder could not be created are reported as failed and are not returned.
+	 */
+	private Map<String, Path> plan(Predicate<Path> filter, InternalizationReport.Builder report, InternalizationListener listener) {
+		Map<String, Path> targets = new HashMap<>();
+		resources.forEach((k, v)->{
+			if (filter.test(v.getPath())) {
+				newLocation(k, v).ifPresent(t->targets.put(k, t));
+			}
+		});
+		// Create each target folder once
+		Map<Path, IOException> failedFolders = new HashMap<>();
+		targets.values().stream().map(v->v.getParent()).distinct().forEach(dir->{
+			try {
+				Files.createDirectories(dir);
+			} catch (IOException e) {
+				failedFolders.put(dir, e);
 			}
+		});
+		Map<String, Path> ret = new HashMap<>();
+		targets.forEach((k, t)->{
+			IOException e = failedFolders.get(t.getParent());
+			if (e!=null) {
+				failed(report, listener, k, e);
+			} else {
+				ret.put(k, t);
+			}
+		});
+		return ret;
+	}
+	
+	private static void failed(InternalizationReport.Builder report, InternalizationListener listener, String path, IOException e) {
+		synchronized (report) {
+			report.failed(path, e);
+		}
+		notify(()->listener.failed(path, e));
+	}
+	
+	private static void notify(Runnable r) {
+		try {
+			r.run();
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Listener failed", e);
 		}
-		return Optional.empty();
 	}
 
 }
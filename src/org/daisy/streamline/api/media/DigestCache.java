@@ -0,0 +1,271 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Provides a cache of file digests. Digests are memoized per file key,
+ * see {@link BasicFileAttributes#fileKey()}, and are recomputed if the size
+ * or the last modified time of the file has changed since the digest was
+ * computed. If the file system doesn't provide file keys, the absolute path
+ * of the file is used instead.</p>
+ *
+ * <p>In addition to the algorithms supported by {@link MessageDigest}, the
+ * cache supports "CRC32", see {@link ChecksumAlgorithm}. Files are read through
+ * a direct buffer, or optionally memory mapped.</p>
+ *
+ * <p>This class is thread safe. Digests of different files may be computed
+ * in parallel.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class DigestCache {
+	private static final int DEFAULT_MAX_SIZE = 100000;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long MAP_THRESHOLD = 1 << 22;
+	private static final long MAP_CHUNK_SIZE = 1 << 28;
+	private static final String CRC32_ALGORITHM = "CRC32";
+	// Direct buffers are expensive to allocate, keep one per thread
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(()->ByteBuffer.allocateDirect(BUFFER_SIZE));
+	private final int maxSize;
+	private final Map<Object, Entry> entries;
+
+	private static final class Entry {
+		private final long size;
+		private final FileTime lastModified;
+		private final byte[] digest;
+		private Entry(long size, FileTime lastModified, byte[] digest) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+		}
+		private boolean matches(BasicFileAttributes attrs) {
+			return size==attrs.size() && lastModified.equals(attrs.lastModifiedTime());
+		}
+	}
+
+	private static final class Key {
+		private final String algorithm;
+		private final Object file;
+		private Key(String algorithm, Object file) {
+			this.algorithm = algorithm;
+			this.file = file;
+		}
+		@Override
+		public int hashCode() {
+			return 31 * algorithm.hashCode() + file.hashCode();
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return algorithm.equals(other.algorithm) && file.equals(other.file);
+		}
+	}
+
+	private DigestCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Creates a new digest cache with a default maximum size.
+	 * @return a new digest cache
+	 */
+	public static DigestCache newInstance() {
+		return new DigestCache(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new digest cache with the specified maximum size. When the maximum
+	 * size is reached, the cache is cleared.
+	 * @param maxSize the maximum number of digests to keep
+	 * @return a new digest cache
+	 * @throws IllegalArgumentException if the maximum size is less than one
+	 */
+	public static DigestCache withMaxSize(int maxSize) {
+		if (maxSize<1) {
+			throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+		}
+		return new DigestCache(maxSize);
+	}
+
+	/**
+	 * Gets the digest of the specified file. The digest is computed if it isn't
+	 * in the cache, or if the file has changed since it was computed.
+	 * @param path the file
+	 * @param algorithm the digest algorithm, for example "SHA-256"
+	 * @return the digest
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the algorithm isn't supported
+	 */
+	public byte[] digest(Path path, String algorithm) throws IOException {
+		return digest(path, algorithm, false);
+	}
+
+	/**
+	 * Gets the digest of the specified file using the specified algorithm.
+	 * @param path the file
+	 * @param algorithm the algorithm
+	 * @return the digest
+	 * @throws IOException if an I/O error occurs
+	 */
+	public byte[] digest(Path path, ChecksumAlgorithm algorithm) throws IOException {
+		return digest(path, algorithm.getName(), false);
+	}
+
+	/**
+	 * Gets the digest of the specified file. Memory mapping only affects how the
+	 * contents is read, if at all, not the result.
+	 * @param path the file
+	 * @param algorithm the digest algorithm
+	 * @param map true if large files should be memory mapped, false otherwise
+	 * @return the digest
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the algorithm isn't supported
+	 */
+	byte[] digest(Path path, String algorithm, boolean map) throws IOException {
+		Objects.requireNonNull(algorithm);
+		BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+		Object fileKey = attrs.fileKey();
+		Key key = new Key(algorithm, fileKey!=null ? fileKey : path.toAbsolutePath().normalize());
+		Entry e = entries.get(key);
+		if (e==null || !e.matches(attrs)) {
+			e = new Entry(attrs.size(), attrs.lastModifiedTime(), compute(path, algorithm, map));
+			if (entries.size()>=maxSize) {
+				entries.clear();
+			}
+			entries.put(key, e);
+		}
+		return e.digest.clone();
+	}
+
+	/**
+	 * Gets the digest of the specified file as a lower case hex string.
+	 * @param path the file
+	 * @param algorithm the digest algorithm
+	 * @return the digest
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the algorithm isn't supported
+	 */
+	public String digestHex(Path path, String algorithm) throws IOException {
+		return toHex(digest(path, algorithm));
+	}
+
+	/**
+	 * Gets the number of digests in the cache.
+	 * @return the number of digests
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all digests from the cache.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Verifies that the specified algorithm is supported.
+	 * @param algorithm the algorithm
+	 * @throws IllegalArgumentException if the algorithm isn't supported
+	 */
+	static void checkAlgorithm(String algorithm) {
+		newHasher(algorithm);
+	}
+
+	private interface Hasher {
+		void update(ByteBuffer data);
+		byte[] digest();
+	}
+
+	private static Hasher newHasher(String algorithm) {
+		if (CRC32_ALGORITHM.equals(algorithm)) {
+			CRC32 crc = new CRC32();
+			return new Hasher() {
+				@Override
+				public void update(ByteBuffer data) {
+					crc.update(data);
+				}
+				@Override
+				public byte[] digest() {
+					return ByteBuffer.allocate(4).putInt((int)crc.getValue()).array();
+				}
+			};
+		}
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unsupported algorithm: " + algorithm, e);
+		}
+		return new Hasher() {
+			@Override
+			public void update(ByteBuffer data) {
+				md.update(data);
+			}
+			@Override
+			public byte[] digest() {
+				return md.digest();
+			}
+		};
+	}
+
+	/**
+	 * Computes the digest of the specified file without consulting or updating the cache.
+	 * @param path the file
+	 * @param algorithm the digest algorithm
+	 * @param map true if large files should be memory mapped, false otherwise
+	 * @return the digest
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the algorithm isn't supported
+	 */
+	static byte[] compute(Path path, String algorithm, boolean map) throws IOException {
+		Hasher h = newHasher(algorithm);
+		try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = fc.size();
+			if (map && size>=MAP_THRESHOLD) {
+				for (long pos = 0; pos<size; pos+=MAP_CHUNK_SIZE) {
+					h.update(fc.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_CHUNK_SIZE, size-pos)));
+				}
+			} else {
+				ByteBuffer buf = BUFFER.get();
+				buf.clear();
+				while (fc.read(buf)>-1) {
+					buf.flip();
+					h.update(buf);
+					buf.clear();
+				}
+			}
+		}
+		return h.digest();
+	}
+
+	static String toHex(byte[] value) {
+		StringBuilder sb = new StringBuilder(value.length*2);
+		for (byte b : value) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.daisy.streamline.api.media;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * <p>Provides options for importing the files in a directory into a file set
+ * using {@link DefaultFileSet.Builder#addAll(Path, DirectoryImport)}.</p>
+ *
+ * <p>Include and exclude patterns use the glob syntax of {@link FileSystem#getPathMatcher(String)}
+ * and are matched against the path of each file relative to the imported directory.
+ * A file is imported if it matches at least one include pattern, or if there are no
+ * include patterns, and it doesn't match any exclude pattern.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class DirectoryImport {
+	private final List<String> includes;
+	private final List<String> excludes;
+	private final boolean parallel;
+	private final Function<Path, AnnotatedFile> annotator;
+
+	/**
+	 * Provides a builder for directory imports.
+	 */
+	public static class Builder {
+		private final List<String> includes = new ArrayList<>();
+		private final List<String> excludes = new ArrayList<>();
+		private boolean parallel = true;
+		private Function<Path, AnnotatedFile> annotator = p->DefaultAnnotatedFile.with(p).build();
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Adds an include pattern.
+		 * @param glob the pattern
+		 * @return this builder
+		 */
+		public Builder include(String glob) {
+			includes.add(Objects.requireNonNull(glob));
+			return this;
+		}
+
+		/**
+		 * Adds an exclude pattern.
+		 * @param glob the pattern
+		 * @return this builder
+		 */
+		public Builder exclude(String glob) {
+			excludes.add(Objects.requireNonNull(glob));
+			return this;
+		}
+
+		/**
+		 * Sets whether the directory should be walked in parallel. The default is true.
+		 * @param value true to walk in parallel, false otherwise
+		 * @return this builder
+		 */
+		public Builder parallel(boolean value) {
+			this.parallel = value;
+			return this;
+		}
+
+		/**
+		 * Sets the function used to create a resource for each file, for example
+		 * to identify the file. When walking in parallel, the function is called
+		 * concurrently and must be thread safe. By default, resources are created
+		 * without any annotations, like {@link DefaultFileSet.Builder#add(Path)}.
+		 * @param value the function
+		 * @return this builder
+		 */
+		public Builder annotator(Function<Path, AnnotatedFile> value) {
+			this.annotator = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Builds a new directory import.
+		 * @return a new directory import
+		 */
+		public DirectoryImport build() {
+			return new DirectoryImport(this);
+		}
+	}
+
+	private DirectoryImport(Builder builder) {
+		this.includes = Collections.unmodifiableList(new ArrayList<>(builder.includes));
+		this.excludes = Collections.unmodifiableList(new ArrayList<>(builder.excludes));
+		this.parallel = builder.parallel;
+		this.annotator = builder.annotator;
+	}
+
+	/**
+	 * Creates a new builder.
+	 * @return a new builder
+	 */
+	public static Builder with() {
+		return new Builder();
+	}
+
+	/**
+	 * Creates a new directory import with the default settings.
+	 * @return a new directory import
+	 */
+	public static DirectoryImport newInstance() {
+		return new Builder().build();
+	}
+
+	boolean isParallel() {
+		return parallel;
+	}
+
+	Function<Path, AnnotatedFile> getAnnotator() {
+		return annotator;
+	}
+
+	/**
+	 * Creates a filter for paths relative to the imported directory.
+	 * @param fs the file system
+	 * @return a filter
+	 */
+	Predicate<Path> newFilter(FileSystem fs) {
+		List<PathMatcher> inc = toMatchers(fs, includes);
+		List<PathMatcher> exc = toMatchers(fs, excludes);
+		return p->(inc.isEmpty() || inc.stream().anyMatch(m->m.matches(p))) && exc.stream().noneMatch(m->m.matches(p));
+	}
+
+	private static List<PathMatcher> toMatchers(FileSystem fs, List<String> globs) {
+		List<PathMatcher> ret = new ArrayList<>();
+		for (String glob : globs) {
+			ret.add(fs.getPathMatcher("glob:" + glob));
+		}
+		return ret;
+	}
+
+}
@@ -0,0 +1,194 @@
+package org.daisy.streamline.api.media;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * <p>Provides a spliterator over the regular files below a directory. Directories
+ * are opened one at a time as the traversal proceeds, so that only the directories
+ * that are pending and the directory currently being read are held in memory.</p>
+ *
+ * <p>The spliterator splits by handing off half of the pending directories. If there
+ * are no pending directories, a batch of files from the current directory is handed
+ * off instead.</p>
+ *
+ * <p>Symbolic links are not followed.</p>
+ *
+ * @author Joel Håkansson
+ */
+final class DirectorySpliterator implements Spliterator<Path>, Closeable {
+	private static final int BATCH_UNIT = 1 << 10;
+	private static final int MAX_BATCH = 1 << 16;
+	private final Deque<Path> pending;
+	// Open directory streams are shared between all spliterators split from the same root
+	private final Set<DirectoryStream<Path>> open;
+	private DirectoryStream<Path> current;
+	private Iterator<Path> entries;
+	private int batch;
+
+	/**
+	 * Creates a new spliterator for the specified directory.
+	 * @param dir the directory
+	 */
+	DirectorySpliterator(Path dir) {
+		this(new ArrayDeque<>(), ConcurrentHashMap.newKeySet());
+		pending.add(dir);
+	}
+
+	private DirectorySpliterator(Deque<Path> pending, Set<DirectoryStream<Path>> open) {
+		this.pending = pending;
+		this.open = open;
+		this.current = null;
+		this.entries = null;
+		this.batch = 0;
+	}
+
+	/**
+	 * Creates a new stream of the regular files below the specified directory.
+	 * The stream must be closed after use.
+	 * @param dir the directory
+	 * @param parallel true if the stream should be parallel, false otherwise
+	 * @return a new stream
+	 */
+	static Stream<Path> stream(Path dir, boolean parallel) {
+		DirectorySpliterator ds = new DirectorySpliterator(dir);
+		return StreamSupport.stream(ds, parallel).onClose(ds::close);
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super Path> action) {
+		while (hasNextEntry()) {
+			Path p = entries.next();
+			if (accept(p)) {
+				action.accept(p);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Spliterator<Path> trySplit() {
+		if (!hasNextEntry()) {
+			return null;
+		} else if (!pending.isEmpty()) {
+			Deque<Path> handoff = new ArrayDeque<>();
+			for (int i = (pending.size()+1)/2; i>0; i--) {
+				handoff.add(pending.removeLast());
+			}
+			return new DirectorySpliterator(handoff, open);
+		} else {
+			// A single directory remains, hand off a batch of its files
+			int n = Math.min(batch + BATCH_UNIT, MAX_BATCH);
+			Path[] a = new Path[n];
+			int j = 0;
+			while (j<n && entries.hasNext()) {
+				Path p = entries.next();
+				if (accept(p)) {
+					a[j++] = p;
+				}
+			}
+			batch = j;
+			return j==0 ? null : Spliterators.spliterator(a, 0, j, characteristics());
+		}
+	}
+
+	/**
+	 * Returns true if there are more entries to read, opening pending
+	 * directories as needed.
+	 * @return true if there are more entries, false otherwise
+	 */
+	private boolean hasNextEntry() {
+		try {
+			while (entries==null || !entries.hasNext()) {
+				closeCurrent();
+				if (pending.isEmpty()) {
+					return false;
+				}
+				current = Files.newDirectoryStream(pending.pop());
+				open.add(current);
+				entries = current.iterator();
+			}
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (DirectoryIteratorException e) {
+			throw new UncheckedIOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Returns true if the entry is a regular file. Directories are added to the
+	 * pending directories.
+	 * @param p the entry
+	 * @return true if the entry is a regular file, false otherwise
+	 */
+	private boolean accept(Path p) {
+		BasicFileAttributes attrs;
+		try {
+			attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		} catch (IOException e) {
+			// The entry was removed after it was listed
+			return false;
+		}
+		if (attrs.isDirectory()) {
+			pending.push(p);
+			return false;
+		}
+		return attrs.isRegularFile();
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return DISTINCT | NONNULL;
+	}
+
+	private void closeCurrent() throws IOException {
+		if (current!=null) {
+			open.remove(current);
+			DirectoryStream<Path> ds = current;
+			current = null;
+			entries = null;
+			ds.close();
+		}
+	}
+
+	/**
+	 * Closes all directories that are still open by this spliterator, or by
+	 * any spliterator split from it.
+	 */
+	@Override
+	public void close() {
+		for (DirectoryStream<Path> ds : open) {
+			try {
+				ds.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+		}
+		open.clear();
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a media type prober that determines the media type using
+ * the file name extension only. The file itself is never accessed.
+ * 
+ * @author Joel Håkansson
+ */
+public final class ExtensionMediaTypeProber implements MediaTypeProber {
+	private static final Logger logger = Logger.getLogger(ExtensionMediaTypeProber.class.getCanonicalName());
+	private static final String MEDIA_TYPES = "media-types.properties";
+	private final Map<String, String> types;
+	
+	private static class DefaultTable {
+		// Loaded on first use only
+		private static final Map<String, String> TYPES = load();
+		
+		private static Map<String, String> load() {
+			Properties p = new Properties();
+			try (InputStream is = ExtensionMediaTypeProber.class.getResourceAsStream(MEDIA_TYPES)) {
+				if (is!=null) {
+					p.load(is);
+				} else {
+					logger.warning("Missing resource: " + MEDIA_TYPES);
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Failed to read: " + MEDIA_TYPES, e);
+			}
+			Map<String, String> ret = new HashMap<>();
+			p.stringPropertyNames().forEach(k->ret.put(k.toLowerCase(Locale.ROOT), p.getProperty(k)));
+			return Collections.unmodifiableMap(ret);
+		}
+	}
+
+	private ExtensionMediaTypeProber(Map<String, String> types) {
+		this.types = types;
+	}
+	
+	/**
+	 * Creates a new prober using the built-in table of extensions.
+	 * @return a new prober
+	 */
+	public static ExtensionMediaTypeProber newInstance() {
+		return new ExtensionMediaTypeProber(DefaultTable.TYPES);
+	}
+	
+	/**
+	 * Creates a new prober using the specified table of extensions. Extensions
+	 * are matched without regard to case and without the leading '.'.
+	 * @param types a map of extensions and media types
+	 * @return a new prober
+	 */
+	public static ExtensionMediaTypeProber with(Map<String, String> types) {
+		Map<String, String> ret = new HashMap<>();
+		types.forEach((k, v)->ret.put(k.toLowerCase(Locale.ROOT), Objects.requireNonNull(v)));
+		return new ExtensionMediaTypeProber(Collections.unmodifiableMap(ret));
+	}
+
+	@Override
+	public String probeContentType(Path path) {
+		String ext = findExtension(path);
+		return ext==null ? null : types.get(ext.toLowerCase(Locale.ROOT));
+	}
+	
+	static String findExtension(Path path) {
+		Path name = path.getFileName();
+		if (name==null) {
+			return null;
+		}
+		String inp = name.toString();
+		int inx = inp.lastIndexOf('.');
+		return (inx>-1 && inx<inp.length()-1)?inp.substring(inx + 1):null;
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Provides moving of files that is safe across file stores.</p>
+ *
+ * <p>A move within a file store is a rename. A move to another file store is
+ * detected before it is started and is performed as a copy in large chunks to a
+ * <code>.partial</code> file next to the target. After each chunk, the data is
+ * forced to disk and the progress is recorded in a checkpoint file. If the move
+ * is interrupted, the next move of the same, unchanged source to the same target
+ * resumes from the checkpoint.</p>
+ *
+ * <p>When all data has been copied, the size and, optionally, the digest of the
+ * copy is verified against the source. Only then is the copy renamed to the
+ * target and the source deleted.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class FileMover {
+	private static final Logger logger = Logger.getLogger(FileMover.class.getCanonicalName());
+	private static final String PARTIAL_SUFFIX = ".partial";
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private final int chunkSize;
+	private final ChecksumAlgorithm algorithm;
+	private final DigestCache digestCache;
+	private final MoveListener listener;
+
+	/**
+	 * Provides a builder for file movers.
+	 */
+	public static class Builder {
+		private int chunkSize = 8 << 20;
+		private ChecksumAlgorithm algorithm = ChecksumAlgorithm.SHA_256;
+		private DigestCache digestCache = null;
+		private MoveListener listener = null;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the number of bytes to copy between checkpoints. The default is 8 MB.
+		 * @param value the chunk size
+		 * @return this builder
+		 * @throws IllegalArgumentException if the value isn't positive
+		 */
+		public Builder chunkSize(int value) {
+			if (value<1) {
+				throw new IllegalArgumentException("Not a positive value: " + value);
+			}
+			this.chunkSize = value;
+			return this;
+		}
+
+		/**
+		 * Sets the algorithm used to verify a copy, or null to only verify the size.
+		 * The default is SHA-256.
+		 * @param value the algorithm
+		 * @return this builder
+		 */
+		public Builder verify(ChecksumAlgorithm value) {
+			this.algorithm = value;
+			return this;
+		}
+
+		/**
+		 * Sets the digest cache to use when verifying a copy. By default,
+		 * a new cache is used for each file mover.
+		 * @param value the digest cache
+		 * @return this builder
+		 */
+		public Builder digestCache(DigestCache value) {
+			this.digestCache = value;
+			return this;
+		}
+
+		/**
+		 * Sets the listener that is notified about the progress of copies.
+		 * @param value the listener
+		 * @return this builder
+		 */
+		public Builder listener(MoveListener value) {
+			this.listener = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new file mover.
+		 * @return a new file mover
+		 */
+		public FileMover build() {
+			return new FileMover(this);
+		}
+	}
+
+	private FileMover(Builder builder) {
+		this.chunkSize = builder.chunkSize;
+		this.algorithm = builder.algorithm;
+		this.digestCache = builder.digestCache!=null ? builder.digestCache : DigestCache.newInstance();
+		this.listener = builder.listener;
+	}
+
+	/**
+	 * Creates a new builder.
+	 * @return a new builder
+	 */
+	public static Builder with() {
+		return new Builder();
+	}
+
+	/**
+	 * Creates a new file mover with the default settings.
+	 * @return a new file mover
+	 */
+	public static FileMover newInstance() {
+		return new Builder().build();
+	}
+
+	/**
+	 * Moves the source to the target, replacing the target if it exists. The parent
+	 * folder of the target must exist.
+	 * @param source the source file
+	 * @param target the target file
+	 * @throws IOException if the file could not be moved. If the move was interrupted,
+	 * 			it can be resumed by moving the file again.
+	 */
+	public void move(Path source, Path target) throws IOException {
+		move(source, target, isSameFileStore(source, target));
+	}
+
+	/**
+	 * Moves the source to the target. If the file stores are believed to be the same,
+	 * a rename is attempted first. The rename is atomic, so that a move that turns out
+	 * to cross devices fails instead of being turned into an unverified copy.
+	 */
+	void move(Path source, Path target, boolean sameStore) throws IOException {
+		if (sameStore) {
+			try {
+				Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+				return;
+			} catch (AtomicMoveNotSupportedException e) {
+				// Not the same device after all, fall through
+				if (logger.isLoggable(Level.FINE)) {
+					logger.log(Level.FINE, "Could not rename " + source, e);
+				}
+			}
+		}
+		copyAndDelete(source, target);
+	}
+
+	private static boolean isSameFileStore(Path source, Path target) {
+		if (!source.getFileSystem().equals(target.getFileSystem())) {
+			return false;
+		}
+		try {
+			Path dir = target.toAbsolutePath().getParent();
+			return Files.getFileStore(source).equals(Files.getFileStore(dir));
+		} catch (IOException e) {
+			// Try a rename, it fails if the stores are different
+			return true;
+		}
+	}
+
+	/**
+	 * Copies the source to the target in chunks, resuming an earlier attempt if possible,
+	 * and deletes the source once the copy has been verified.
+	 */
+	void copyAndDelete(Path source, Path target) throws IOException {
+		Path partial = target.resolveSibling(target.getFileName().toString() + PARTIAL_SUFFIX);
+		Path checkpoint = target.resolveSibling(target.getFileName().toString() + PARTIAL_SUFFIX + CHECKPOINT_SUFFIX);
+		BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		long size = attrs.size();
+		long modified = attrs.lastModifiedTime().toMillis();
+		long position = readCheckpoint(checkpoint, size, modified);
+		long start = System.nanoTime();
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+			FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (out.size()<position) {
+				// The checkpoint is ahead of the data on disk
+				position = 0;
+			}
+			out.truncate(position);
+			out.position(position);
+			while (position<size) {
+				long end = Math.min(size, position + chunkSize);
+				while (position<end) {
+					long n = in.transferTo(position, end - position, out);
+					if (n<=0 && in.size()<=position) {
+						throw new IOException("Source truncated while copying: " + source);
+					}
+					position += n;
+				}
+				// The data must be on disk before the checkpoint refers to it
+				out.force(false);
+				writeCheckpoint(checkpoint, size, modified, position);
+				if (listener!=null) {
+					listener.progress(source, position, size, Duration.ofNanos(System.nanoTime() - start));
+				}
+			}
+			out.force(true);
+		}
+		verify(source, partial, size);
+		Files.setLastModifiedTime(partial, attrs.lastModifiedTime());
+		try {
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.deleteIfExists(checkpoint);
+		Files.delete(source);
+	}
+
+	private void verify(Path source, Path partial, long size) throws IOException {
+		String error = null;
+		if (Files.size(partial)!=size) {
+			error = "Size mismatch";
+		} else if (algorithm!=null && !Arrays.equals(digestCache.digest(source, algorithm), digestCache.digest(partial, algorithm))) {
+			error = "Checksum mismatch";
+		}
+		if (error!=null) {
+			// The copy can't be trusted, so start over next time
+			Files.deleteIfExists(partial.resolveSibling(partial.getFileName().toString() + CHECKPOINT_SUFFIX));
+			Files.deleteIfExists(partial);
+			throw new IOException(error + " after copying " + source);
+		}
+	}
+
+	/**
+	 * Reads the number of bytes that were copied by an earlier attempt. Returns
+	 * zero if there is no checkpoint or if the source has changed since it was written.
+	 */
+	private static long readCheckpoint(Path checkpoint, long size, long modified) {
+		try {
+			List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+			if (lines.size()==3 && Long.parseLong(lines.get(0))==size && Long.parseLong(lines.get(1))==modified) {
+				long ret = Long.parseLong(lines.get(2));
+				if (ret>=0 && ret<=size) {
+					return ret;
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// No earlier attempt
+		} catch (IOException | NumberFormatException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Ignoring checkpoint: " + checkpoint, e);
+			}
+		}
+		return 0;
+	}
+
+	private static void writeCheckpoint(Path checkpoint, long size, long modified, long position) throws IOException {
+		Files.write(checkpoint, Arrays.asList(Long.toString(size), Long.toString(modified), Long.toString(position)), StandardCharsets.UTF_8);
+	}
+
+}
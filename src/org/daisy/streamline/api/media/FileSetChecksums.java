@@ -0,0 +1,188 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides checksum manifest generation and verification for file sets.
+ * The checksums are computed in parallel by default. When a manifest is generated,
+ * checksums are memoized in a {@link DigestCache}, which can be shared with other
+ * components, such as {@link FileSetDiff}, so that the checksum of an unchanged
+ * file is only computed once. Verification always reads the files, since the
+ * cache identifies unchanged files by size and modification time only.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class FileSetChecksums {
+	private final ChecksumAlgorithm algorithm;
+	private final DigestCache cache;
+	private final boolean parallel;
+	private final boolean memoryMapping;
+
+	/**
+	 * Provides a builder for file set checksums.
+	 */
+	public static class Builder {
+		private final ChecksumAlgorithm algorithm;
+		private DigestCache cache = null;
+		private boolean parallel = true;
+		private boolean memoryMapping = false;
+
+		/**
+		 * Creates a new builder with the specified algorithm.
+		 * @param algorithm the algorithm
+		 */
+		public Builder(ChecksumAlgorithm algorithm) {
+			this.algorithm = Objects.requireNonNull(algorithm);
+		}
+
+		/**
+		 * Sets the digest cache to use. By default, a new cache is created for each instance.
+		 * @param value the cache
+		 * @return this builder
+		 */
+		public Builder digestCache(DigestCache value) {
+			this.cache = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets whether checksums should be computed in parallel. The default is true.
+		 * @param value true to compute checksums in parallel, false otherwise
+		 * @return this builder
+		 */
+		public Builder parallel(boolean value) {
+			this.parallel = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether large files should be memory mapped when their checksums
+		 * are computed. The default is false.
+		 * @param value true to memory map large files, false otherwise
+		 * @return this builder
+		 */
+		public Builder memoryMapping(boolean value) {
+			this.memoryMapping = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new instance.
+		 * @return a new instance
+		 */
+		public FileSetChecksums build() {
+			return new FileSetChecksums(this);
+		}
+	}
+
+	private FileSetChecksums(Builder builder) {
+		this.algorithm = builder.algorithm;
+		this.cache = builder.cache!=null ? builder.cache : DigestCache.newInstance();
+		this.parallel = builder.parallel;
+		this.memoryMapping = builder.memoryMapping;
+	}
+
+	/**
+	 * Creates a new builder with the specified algorithm.
+	 * @param algorithm the algorithm
+	 * @return a new builder
+	 */
+	public static Builder with(ChecksumAlgorithm algorithm) {
+		return new Builder(algorithm);
+	}
+
+	/**
+	 * Generates a checksum manifest for the resources in the specified file set.
+	 * The resource paths in the manifest use <code>/</code> as separator.
+	 * @param fileSet the file set
+	 * @return a checksum manifest
+	 * @throws IOException if a resource cannot be read
+	 */
+	public ChecksumManifest generate(FileSet fileSet) throws IOException {
+		try {
+			String separator = separator(fileSet);
+			Map<String, String> checksums = stream(fileSet.getResourcePaths())
+				.collect(Collectors.toMap(v->toManifestPath(v, separator), v->checksum(fileSet, v, true).get()));
+			return new ChecksumManifest(algorithm, checksums);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * <p>Verifies the specified file set against a checksum manifest. Verification
+	 * stops at the first mismatch. A mismatch is a resource with a different checksum,
+	 * a resource in the manifest that is missing from the file set, or a resource in the file set
+	 * that is missing from the manifest.</p>
+	 *
+	 * <p>The checksums are always computed from the current contents of the files.
+	 * When checksums are computed in parallel, the first mismatch found isn't necessarily
+	 * the first one in any particular order.</p>
+	 * @param fileSet the file set
+	 * @param manifest the manifest
+	 * @return the path of a mismatching resource, as it appears in the manifest, or an empty
+	 * 		optional if the file set matches the manifest
+	 * @throws IOException if a resource cannot be read
+	 * @throws IllegalArgumentException if the manifest was not created with the algorithm of this instance
+	 */
+	public Optional<String> verify(FileSet fileSet, ChecksumManifest manifest) throws IOException {
+		if (manifest.getAlgorithm()!=algorithm) {
+			throw new IllegalArgumentException("Expected " + algorithm + " but manifest uses " + manifest.getAlgorithm());
+		}
+		// Manifest paths mapped to resource keys
+		String separator = separator(fileSet);
+		Map<String, String> keys = new HashMap<>();
+		for (String key : fileSet.getResourcePaths()) {
+			keys.put(toManifestPath(key, separator), key);
+		}
+		Optional<String> extra = keys.keySet().stream().filter(v->!manifest.getChecksums().containsKey(v)).findAny();
+		if (extra.isPresent()) {
+			return extra;
+		}
+		try {
+			return stream(manifest.getChecksums().keySet())
+				.filter(v->!Optional.ofNullable(keys.get(v)).flatMap(k->checksum(fileSet, k, false)).map(c->c.equals(manifest.getChecksums().get(v))).orElse(false))
+				.findAny();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Optional<String> checksum(FileSet fileSet, String path, boolean cached) {
+		try {
+			Optional<AnnotatedFile> f = fileSet.getResourceForKey(path);
+			if (!f.isPresent()) {
+				return Optional.empty();
+			}
+			Path p = f.get().getPath();
+			byte[] digest = cached
+					? cache.digest(p, algorithm.getName(), memoryMapping)
+					: DigestCache.compute(p, algorithm.getName(), memoryMapping);
+			return Optional.of(DigestCache.toHex(digest));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String separator(FileSet fileSet) {
+		return fileSet.getBaseFolder().getPath().getFileSystem().getSeparator();
+	}
+
+	private static String toManifestPath(String key, String separator) {
+		return "/".equals(separator) ? key : key.replace(separator, "/");
+	}
+
+	private Stream<String> stream(Set<String> paths) {
+		return parallel ? paths.parallelStream() : paths.stream();
+	}
+
+}
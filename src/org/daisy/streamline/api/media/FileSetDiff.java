@@ -0,0 +1,179 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a comparison of two file sets. Resources are matched by their
+ * path within the file set, see {@link FileSet#getResourcePaths()}. A resource
+ * that exists in both file sets is considered modified if its size or last
+ * modified time differs.</p>
+ *
+ * <p>If digests are enabled, a resource with the same size is considered modified if,
+ * and only if, its digest differs, regardless of the last modified time. This is useful
+ * when comparing a file set with a copy of itself. Digests are memoized in a
+ * {@link DigestCache}, which can be shared between instances.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class FileSetDiff {
+	private final boolean digests;
+	private final String algorithm;
+	private final DigestCache cache;
+	private final boolean parallel;
+
+	/**
+	 * Provides a builder for file set diffs.
+	 */
+	public static class Builder {
+		private boolean digests = false;
+		private String algorithm = "SHA-256";
+		private DigestCache cache = null;
+		private boolean parallel = false;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets whether digests should be compared when the size of a resource
+		 * is unchanged. The default is false.
+		 * @param value true to compare digests, false otherwise
+		 * @return this builder
+		 */
+		public Builder digests(boolean value) {
+			this.digests = value;
+			return this;
+		}
+
+		/**
+		 * Sets the digest algorithm. The default is SHA-256.
+		 * @param value the algorithm
+		 * @return this builder
+		 */
+		public Builder algorithm(String value) {
+			this.algorithm = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the digest cache to use. By default, a new cache is created for each instance.
+		 * @param value the cache
+		 * @return this builder
+		 */
+		public Builder digestCache(DigestCache value) {
+			this.cache = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets whether the returned streams should be parallel. If true,
+		 * the resources are compared, and their digests computed, in parallel
+		 * on the common fork join pool. Since this involves blocking I/O, it is
+		 * best suited for local file systems. The default is false.
+		 * @param value true for parallel streams, false otherwise
+		 * @return this builder
+		 */
+		public Builder parallel(boolean value) {
+			this.parallel = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new file set diff.
+		 * @return a new instance
+		 */
+		public FileSetDiff build() {
+			return new FileSetDiff(this);
+		}
+	}
+
+	private FileSetDiff(Builder builder) {
+		this.digests = builder.digests;
+		this.algorithm = builder.algorithm;
+		this.cache = builder.cache!=null ? builder.cache : DigestCache.newInstance();
+		this.parallel = builder.parallel;
+		// Fail early if the algorithm isn't supported
+		if (digests) {
+			DigestCache.checkAlgorithm(algorithm);
+		}
+	}
+
+	/**
+	 * Creates a new builder.
+	 * @return a new builder
+	 */
+	public static Builder with() {
+		return new Builder();
+	}
+
+	/**
+	 * Creates a new file set diff with the default settings.
+	 * @return a new instance
+	 */
+	public static FileSetDiff newInstance() {
+		return new Builder().build();
+	}
+
+	/**
+	 * Compares two file sets. The changes are computed as the returned stream is consumed.
+	 * Resources that are unchanged are not included.
+	 * @param before the file set before the changes
+	 * @param after the file set after the changes
+	 * @return a stream of changes
+	 * @throws UncheckedIOException if the attributes or contents of a resource cannot be read
+	 */
+	public Stream<ResourceChange> compare(FileSet before, FileSet after) {
+		Set<String> beforePaths = before.getResourcePaths();
+		Set<String> afterPaths = after.getResourcePaths();
+		Stream<ResourceChange> removedOrModified = stream(beforePaths)
+			.map(p->{
+				AnnotatedFile b = before.getResourceForKey(p).get();
+				Optional<AnnotatedFile> a = after.getResourceForKey(p);
+				if (!a.isPresent()) {
+					return ResourceChange.removed(p, b);
+				} else if (isModified(b.getPath(), a.get().getPath())) {
+					return ResourceChange.modified(p, b, a.get());
+				} else {
+					return null;
+				}
+			})
+			.filter(Objects::nonNull);
+		Stream<ResourceChange> added = stream(afterPaths)
+			.filter(p->!beforePaths.contains(p))
+			.map(p->ResourceChange.added(p, after.getResourceForKey(p).get()));
+		return Stream.concat(removedOrModified, added);
+	}
+
+	private Stream<String> stream(Set<String> paths) {
+		return parallel ? paths.parallelStream() : paths.stream();
+	}
+
+	private boolean isModified(Path before, Path after) {
+		try {
+			BasicFileAttributes b = Files.readAttributes(before, BasicFileAttributes.class);
+			BasicFileAttributes a = Files.readAttributes(after, BasicFileAttributes.class);
+			if (b.size()!=a.size()) {
+				return true;
+			} else if (digests) {
+				return !Arrays.equals(cache.digest(before, algorithm), cache.digest(after, algorithm));
+			} else {
+				return !b.lastModifiedTime().equals(a.lastModifiedTime());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
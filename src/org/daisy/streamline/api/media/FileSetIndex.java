@@ -0,0 +1,322 @@
+package org.daisy.streamline.api.media;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Provides a binary index of a file set. The index contains the base folder,
+ * the manifest path, the format identifier and the path and file details of each
+ * resource. It can be used to reopen a file set without walking directories or
+ * identifying resources again.</p>
+ *
+ * <p>All strings are stored once in a string table and referred to by index.
+ * The index is written to a temporary file which is then moved into place, so that
+ * a reader never sees a partially written index. It is read using memory mapping.</p>
+ *
+ * <p>The base folder is stored relative to the location of the index, if possible.
+ * Hence, the index remains valid if the index and the base folder are moved together.
+ * Resources outside of the base folder are stored with their absolute paths.</p>
+ *
+ * <p>Property values of the types {@link String}, {@link Integer}, {@link Long}, {@link Boolean}
+ * and {@link Double} are stored. Other property values are ignored.</p>
+ *
+ * <p>The index doesn't check whether the resources have changed since it was written.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class FileSetIndex {
+	private static final Logger logger = Logger.getLogger(FileSetIndex.class.getCanonicalName());
+	private static final int MAGIC = 0x534c4649; // SLFI
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".fsindex";
+	private static final int NONE = -1;
+	private static final byte TYPE_STRING = 'S';
+	private static final byte TYPE_INT = 'I';
+	private static final byte TYPE_LONG = 'J';
+	private static final byte TYPE_BOOLEAN = 'Z';
+	private static final byte TYPE_DOUBLE = 'D';
+
+	private FileSetIndex() {}
+
+	/**
+	 * Gets the default location of the index for the specified base folder. This
+	 * is a file next to the base folder, with the same name as the folder
+	 * and the extension <code>.fsindex</code>.
+	 * @param baseFolder the base folder
+	 * @return the location of the index
+	 */
+	public static Path getDefaultLocation(BaseFolder baseFolder) {
+		Path p = baseFolder.getPath().toAbsolutePath().normalize();
+		return p.resolveSibling(p.getFileName().toString() + EXTENSION);
+	}
+
+	/**
+	 * Writes an index of the specified file set to its default location.
+	 * @param fileSet the file set
+	 * @return the location of the index
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static Path write(FileSet fileSet) throws IOException {
+		Path ret = getDefaultLocation(fileSet.getBaseFolder());
+		write(fileSet, ret);
+		return ret;
+	}
+
+	/**
+	 * Writes an index of the specified file set to the specified file.
+	 * @param fileSet the file set
+	 * @param target the index file
+	 * @throws IOException if an I/O error occurs
+	 */
+	public static void write(FileSet fileSet, Path target) throws IOException {
+		Path base = fileSet.getBaseFolder().getPath().toAbsolutePath().normalize();
+		StringTable strings = new StringTable();
+		// Collect the records first, so that the string table can be written before them
+		List<int[]> records = new ArrayList<>();
+		List<List<Object[]>> properties = new ArrayList<>();
+		for (String key : fileSet.getResourcePaths()) {
+			AnnotatedFile f = fileSet.getResourceForKey(key).get();
+			Path p = f.getPath().toAbsolutePath().normalize();
+			int file = p.equals(base.resolve(key).normalize()) ? NONE : strings.add(p.toString());
+			records.add(new int[]{strings.add(key), file, strings.add(f.getFormatName()), strings.add(f.getExtension()), strings.add(f.getMediaType())});
+			List<Object[]> props = new ArrayList<>();
+			for (Map.Entry<String, Object> e : f.getProperties().entrySet()) {
+				Object v = e.getValue();
+				if (v instanceof String) {
+					props.add(new Object[]{strings.add(e.getKey()), TYPE_STRING, strings.add((String)v)});
+				} else if (v instanceof Integer || v instanceof Long || v instanceof Boolean || v instanceof Double) {
+					props.add(new Object[]{strings.add(e.getKey()), typeOf(v), v});
+				} else if (logger.isLoggable(Level.FINE)) {
+					logger.fine("Property not supported by index: " + e.getKey());
+				}
+			}
+			properties.add(props);
+		}
+		Path dir = target.toAbsolutePath().normalize().getParent();
+		int baseIndex = strings.add(relativize(dir, base).toString());
+		int manifest = strings.add(fileSet.getManifestPath());
+		int format = strings.add(fileSet.getFormatIdentifier().map(FormatIdentifier::getIdentifier).orElse(null));
+
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(fc), 1 << 16));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(strings.size());
+				for (String s : strings.values()) {
+					byte[] b = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(b.length);
+					out.write(b);
+				}
+				out.writeInt(baseIndex);
+				out.writeInt(manifest);
+				out.writeInt(format);
+				out.writeInt(records.size());
+				for (int i=0; i<records.size(); i++) {
+					for (int v : records.get(i)) {
+						out.writeInt(v);
+					}
+					List<Object[]> props = properties.get(i);
+					out.writeInt(props.size());
+					for (Object[] p : props) {
+						out.writeInt((Integer)p[0]);
+						writeValue(out, (Byte)p[1], p[2]);
+					}
+				}
+				out.flush();
+				fc.force(true);
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		FileUtils.forceDirectory(dir);
+	}
+
+	/**
+	 * Returns the path of the base folder relative to the index folder, or
+	 * the absolute path if the folders don't have the same root.
+	 */
+	private static Path relativize(Path dir, Path base) {
+		return base.getRoot()!=null && base.getRoot().equals(dir.getRoot()) ? dir.relativize(base) : base;
+	}
+
+	private static byte typeOf(Object v) {
+		if (v instanceof Integer) {
+			return TYPE_INT;
+		} else if (v instanceof Long) {
+			return TYPE_LONG;
+		} else if (v instanceof Boolean) {
+			return TYPE_BOOLEAN;
+		} else {
+			return TYPE_DOUBLE;
+		}
+	}
+
+	private static void writeValue(DataOutputStream out, byte type, Object v) throws IOException {
+		out.writeByte(type);
+		switch (type) {
+			case TYPE_STRING: case TYPE_INT:
+				out.writeInt((Integer)v);
+				break;
+			case TYPE_LONG:
+				out.writeLong((Long)v);
+				break;
+			case TYPE_BOOLEAN:
+				out.writeBoolean((Boolean)v);
+				break;
+			default:
+				out.writeDouble((Double)v);
+		}
+	}
+
+	/**
+	 * Reads a file set from the index at the default location for the specified base folder.
+	 * @param baseFolder the base folder
+	 * @return the file set
+	 * @throws IOException if the index cannot be read
+	 */
+	public static DefaultFileSet read(BaseFolder baseFolder) throws IOException {
+		return read(getDefaultLocation(baseFolder));
+	}
+
+	/**
+	 * Reads a file set from the specified index file.
+	 * @param index the index file
+	 * @return the file set
+	 * @throws IOException if the index cannot be read, or if it isn't a valid index
+	 */
+	public static DefaultFileSet read(Path index) throws IOException {
+		ByteBuffer bb;
+		try (FileChannel fc = FileChannel.open(index, StandardOpenOption.READ)) {
+			if (fc.size()>Integer.MAX_VALUE) {
+				throw new IOException("Index too large: " + index);
+			}
+			// The mapping remains valid after the channel is closed
+			bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+		}
+		try {
+			if (bb.getInt()!=MAGIC) {
+				throw new IOException("Not a file set index: " + index);
+			}
+			int version = bb.getInt();
+			if (version!=VERSION) {
+				throw new IOException("Unsupported index version " + version + ": " + index);
+			}
+			String[] strings = new String[readCount(bb, 4, index)];
+			for (int i=0; i<strings.length; i++) {
+				int len = readCount(bb, 1, index);
+				ByteBuffer s = bb.slice();
+				s.limit(len);
+				strings[i] = StandardCharsets.UTF_8.decode(s).toString();
+				bb.position(bb.position()+len);
+			}
+			Path base = index.toAbsolutePath().normalize().getParent().resolve(strings[bb.getInt()]).normalize();
+			String manifestPath = strings[bb.getInt()];
+			String format = string(strings, bb.getInt());
+			// Each record has five string references and a property count
+			int count = readCount(bb, 24, index);
+			Map<String, AnnotatedFile> resources = new HashMap<>(count*4/3+1);
+			for (int i=0; i<count; i++) {
+				String key = strings[bb.getInt()];
+				String file = string(strings, bb.getInt());
+				DefaultAnnotatedFile.Builder f = DefaultAnnotatedFile.with(file!=null ? base.getFileSystem().getPath(file) : base.resolve(key))
+					.formatName(string(strings, bb.getInt()))
+					.extension(string(strings, bb.getInt()))
+					.mediaType(string(strings, bb.getInt()));
+				// Each property has a key, a type and at least one byte of data
+				int props = readCount(bb, 6, index);
+				for (int j=0; j<props; j++) {
+					f.property(strings[bb.getInt()], readValue(bb, strings));
+				}
+				resources.put(key, f.build());
+			}
+			AnnotatedFile manifest = resources.remove(manifestPath);
+			if (manifest==null) {
+				throw new IOException("Manifest missing from index: " + index);
+			}
+			DefaultFileSet.Builder builder = DefaultFileSet.with(BaseFolder.with(base), manifest, manifestPath);
+			if (format!=null) {
+				builder.formatIdentifier(FormatIdentifier.with(format));
+			}
+			resources.forEach((k, v)->builder.add(v, k));
+			return builder.build();
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt index: " + index, e);
+		}
+	}
+
+	/**
+	 * Reads a count and checks that the remaining data can hold that many items
+	 * of the specified minimum size.
+	 */
+	private static int readCount(ByteBuffer bb, int minSize, Path index) throws IOException {
+		int ret = bb.getInt();
+		if (ret<0 || (long)ret*minSize>bb.remaining()) {
+			throw new IOException("Corrupt index, invalid count " + ret + " at " + (bb.position()-4) + ": " + index);
+		}
+		return ret;
+	}
+
+	private static String string(String[] strings, int i) {
+		return i==NONE ? null : strings[i];
+	}
+
+	private static Object readValue(ByteBuffer bb, String[] strings) throws IOException {
+		byte type = bb.get();
+		switch (type) {
+			case TYPE_STRING:
+				return strings[bb.getInt()];
+			case TYPE_INT:
+				return bb.getInt();
+			case TYPE_LONG:
+				return bb.getLong();
+			case TYPE_BOOLEAN:
+				return bb.get()!=0;
+			case TYPE_DOUBLE:
+				return bb.getDouble();
+			default:
+				throw new IOException("Unknown property type: " + type);
+		}
+	}
+
+	private static class StringTable {
+		private final Map<String, Integer> table = new LinkedHashMap<>();
+
+		private int add(String value) {
+			if (value==null) {
+				return NONE;
+			}
+			return table.computeIfAbsent(value, v->table.size());
+		}
+
+		private int size() {
+			return table.size();
+		}
+
+		private Iterable<String> values() {
+			return table.keySet();
+		}
+	}
+
+}
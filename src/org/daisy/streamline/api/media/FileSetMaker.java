@@ -1,10 +1,16 @@
 package org.daisy.streamline.api.media;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -14,13 +20,20 @@ import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
 
 /**
- * Provides file identification based on its contents.
+ * <p>Provides file set creation using the available {@link FileSetProvider}s.</p>
+ *
+ * <p>Providers are indexed by the media types, format names and extensions
+ * that they declare. When a file set is created, the providers matching the
+ * media type of the file are tried first, then those matching the format name,
+ * then those matching the extension and finally the providers that don't declare
+ * anything. Providers are otherwise tried in the order they were added.</p>
  * 
  * @author Joel Håkansson
  */
 @Component
 public class FileSetMaker implements FileSetMakerService {
 	private final List<FileSetProvider> filters;
+	private volatile ProviderIndex index;
 	private static final Logger logger = Logger.getLogger(FileSetMaker.class.getCanonicalName());
 	
 	/**
@@ -28,6 +41,7 @@ public class FileSetMaker implements FileSetMakerService {
 	 */
 	public FileSetMaker() {
 		this.filters = new CopyOnWriteArrayList<>();
+		this.index = new ProviderIndex(filters);
 	}
 	
 	/**
@@ -62,7 +76,10 @@ public class FileSetMaker implements FileSetMakerService {
 		if (logger.isLoggable(Level.FINER)) {
 			logger.finer("Adding factory: " + factory);
 		}
-		filters.add(factory);
+		synchronized (filters) {
+			filters.add(factory);
+			index = new ProviderIndex(filters);
+		}
 	}
 
 	/**
@@ -74,7 +91,10 @@ public class FileSetMaker implements FileSetMakerService {
 		if (logger.isLoggable(Level.FINER)) {
 			logger.finer("Removing factory: " + factory);
 		}
-		filters.remove(factory);
+		synchronized (filters) {
+			filters.remove(factory);
+			index = new ProviderIndex(filters);
+		}
 	}
 
 	@Override
@@ -84,19 +104,71 @@ public class FileSetMaker implements FileSetMakerService {
 
 	@Override
 	public FileSet create(AnnotatedFile in, Map<String, Object> parameters) {
-		return filters.stream()
-			.filter(f->f.accepts(in))
-			.map(f->{
-					try {
-						return f.create(in, parameters);
-					} catch (FileSetException e) {
-						logger.log(Level.WARNING, "Failed to create file set with provider: " + f, e);
-						return null;
+		return create(in, parameters, v->{});
+	}
+
+	@Override
+	public FileSet create(AnnotatedFile in, Map<String, Object> parameters, Consumer<FileSetProviderFailure> failures) {
+		for (FileSetProvider f : index.candidates(in)) {
+			if (f.accepts(in)) {
+				try {
+					FileSet ret = f.create(in, parameters);
+					if (ret!=null) {
+						return ret;
 					}
-				})
-			.filter(v->v!=null)
-			.findFirst()
-			.orElse(DefaultFileSet.with(BaseFolder.with(in.getPath().getParent()), in).build());
+				} catch (FileSetException e) {
+					logger.log(Level.WARNING, "Failed to create file set with provider: " + f, e);
+					failures.accept(new FileSetProviderFailure(f, in, e));
+				}
+			}
+		}
+		return DefaultFileSet.with(BaseFolder.with(in.getPath().getParent()), in).build();
+	}
+
+	/**
+	 * Provides an immutable index of providers. A new index is created when
+	 * providers are added or removed.
+	 */
+	private static final class ProviderIndex {
+		private final Map<String, List<FileSetProvider>> byMediaType;
+		private final Map<String, List<FileSetProvider>> byFormatName;
+		private final Map<String, List<FileSetProvider>> byExtension;
+		private final List<FileSetProvider> undeclared;
+
+		private ProviderIndex(List<FileSetProvider> providers) {
+			this.byMediaType = new HashMap<>();
+			this.byFormatName = new HashMap<>();
+			this.byExtension = new HashMap<>();
+			this.undeclared = new ArrayList<>();
+			for (FileSetProvider p : providers) {
+				Set<String> mediaTypes = p.getMediaTypes();
+				Set<String> formatNames = p.getFormatNames();
+				Set<String> extensions = p.getExtensions();
+				if (mediaTypes.isEmpty() && formatNames.isEmpty() && extensions.isEmpty()) {
+					undeclared.add(p);
+				} else {
+					mediaTypes.forEach(v->byMediaType.computeIfAbsent(v, k->new ArrayList<>()).add(p));
+					formatNames.forEach(v->byFormatName.computeIfAbsent(v, k->new ArrayList<>()).add(p));
+					extensions.forEach(v->byExtension.computeIfAbsent(v.toLowerCase(Locale.ROOT), k->new ArrayList<>()).add(p));
+				}
+			}
+		}
+
+		private Set<FileSetProvider> candidates(FileDetails details) {
+			Set<FileSetProvider> ret = new LinkedHashSet<>();
+			add(ret, byMediaType, details.getMediaType());
+			add(ret, byFormatName, details.getFormatName());
+			String ext = details.getExtension();
+			add(ret, byExtension, ext!=null ? ext.toLowerCase(Locale.ROOT) : null);
+			ret.addAll(undeclared);
+			return ret;
+		}
+
+		private static void add(Set<FileSetProvider> ret, Map<String, List<FileSetProvider>> map, String key) {
+			if (key!=null) {
+				ret.addAll(map.getOrDefault(key, Collections.emptyList()));
+			}
+		}
 	}
 
 }
\ No newline at end of file
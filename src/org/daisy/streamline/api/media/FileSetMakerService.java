@@ -1,6 +1,7 @@
 package org.daisy.streamline.api.media;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * <p>
@@ -15,6 +16,13 @@ import java.util.Map;
  * throughout and that new instances are created as desired.
  * </p>
  * 
+ * <p>
+ * The file sets are returned as created by the {@link FileSetProvider}s. If a
+ * returned file set implements {@link java.io.Closeable}, for example an
+ * {@link ArchiveFileSet}, the caller owns it and must close it when it is
+ * no longer used.
+ * </p>
+ * 
  * @author Joel Håkansson
  * 
  */
@@ -35,4 +43,17 @@ public interface FileSetMakerService {
 	 */
 	public FileSet create(AnnotatedFile f, Map<String, Object> parameters);
 
+	/**
+	 * Builds a file set based on the supplied file. Providers that fail
+	 * to create a file set are reported to the supplied consumer.
+	 * By default, failures are not reported.
+	 * @param f the file to create a file set for
+	 * @param parameters parameters to pass to the file set creator
+	 * @param failures the consumer of failures
+	 * @return returns the file set
+	 */
+	public default FileSet create(AnnotatedFile f, Map<String, Object> parameters, Consumer<FileSetProviderFailure> failures) {
+		return create(f, parameters);
+	}
+
 }
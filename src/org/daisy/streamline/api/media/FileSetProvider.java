@@ -2,9 +2,15 @@ package org.daisy.streamline.api.media;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Provides an interface for creating a file set.
+ * <p>Provides an interface for creating a file set.</p>
+ * 
+ * <p>A provider may return a file set that keeps resources open, for example
+ * an {@link ArchiveFileSet}. Such file sets implement {@link java.io.Closeable}.
+ * The caller of <code>create</code> owns the returned file set and must close
+ * it when it is no longer used, if it is closeable.</p>
  * 
  * @author Joel Håkansson
  */
@@ -20,7 +26,42 @@ public interface FileSetProvider {
 	public boolean accepts(FileDetails type);
 
 	/**
-	 * Builds a file set based on the supplied file.
+	 * <p>Gets the media types handled by this provider.</p>
+	 *
+	 * <p>The media types, format names and extensions declared by a provider
+	 * are used to index it, so that it is only consulted for matching files.
+	 * {@link #accepts(FileDetails)} is still called before a file set is created.
+	 * A provider that doesn't declare anything is consulted for all files,
+	 * after the providers that have matching declarations.</p>
+	 *
+	 * @return the media types, by default an empty set
+	 */
+	public default Set<String> getMediaTypes() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Gets the format names handled by this provider.
+	 * See {@link #getMediaTypes()} for more information.
+	 * @return the format names, by default an empty set
+	 */
+	public default Set<String> getFormatNames() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Gets the file extensions handled by this provider, without the period.
+	 * Extensions are matched case insensitively.
+	 * See {@link #getMediaTypes()} for more information.
+	 * @return the extensions, by default an empty set
+	 */
+	public default Set<String> getExtensions() {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Builds a file set based on the supplied file. The caller must close the
+	 * file set if it is {@link java.io.Closeable}.
 	 * @param f the file to create a file set for
 	 * @return returns the file set
 	 * @throws FileSetException if a file set could not be created
@@ -30,7 +71,8 @@ public interface FileSetProvider {
 	}
 	
 	/**
-	 * Builds a file set based on the supplied file.
+	 * Builds a file set based on the supplied file. The caller must close the
+	 * file set if it is {@link java.io.Closeable}.
 	 * @param f the file to create a file set for
 	 * @param parameters parameters to pass
 	 * @return returns the file set
@@ -0,0 +1,56 @@
+package org.daisy.streamline.api.media;
+
+import java.util.Objects;
+
+/**
+ * Provides information about a {@link FileSetProvider} that failed to
+ * create a file set.
+ * @author Joel Håkansson
+ */
+public final class FileSetProviderFailure {
+	private final FileSetProvider provider;
+	private final AnnotatedFile file;
+	private final FileSetException cause;
+
+	/**
+	 * Creates a new failure.
+	 * @param provider the provider that failed
+	 * @param file the file that the file set was to be created for
+	 * @param cause the exception thrown by the provider
+	 */
+	public FileSetProviderFailure(FileSetProvider provider, AnnotatedFile file, FileSetException cause) {
+		this.provider = Objects.requireNonNull(provider);
+		this.file = Objects.requireNonNull(file);
+		this.cause = Objects.requireNonNull(cause);
+	}
+
+	/**
+	 * Gets the provider that failed.
+	 * @return the provider
+	 */
+	public FileSetProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Gets the file that the file set was to be created for.
+	 * @return the file
+	 */
+	public AnnotatedFile getFile() {
+		return file;
+	}
+
+	/**
+	 * Gets the exception thrown by the provider.
+	 * @return the exception
+	 */
+	public FileSetException getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		return "FileSetProviderFailure [provider=" + provider + ", file=" + file.getPath() + ", cause=" + cause.getMessage() + "]";
+	}
+
+}
@@ -0,0 +1,208 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides atomic publishing of file sets. A file set is published by copying
+ * it into a staging folder next to the target folder, forcing all files to disk,
+ * and then renaming the staging folder to the target folder in a single atomic
+ * operation. As a result, readers of the target location either see nothing or a
+ * complete file set.</p>
+ *
+ * <p>The target folder must not exist, since a directory cannot be atomically replaced.
+ * If publishing fails, the staging folder is removed.</p>
+ *
+ * <p>Renaming a folder replaces an empty folder at the target location. To make sure
+ * that a file set is never published on top of another, a marker file is created next
+ * to the target folder while publishing. A publisher fails if the marker exists, and
+ * only renames the staging folder if the target still doesn't exist. If the process is
+ * terminated while publishing, the marker is left behind and must be removed before the
+ * target can be published again.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class FileSetPublisher {
+	private static final Logger logger = Logger.getLogger(FileSetPublisher.class.getCanonicalName());
+	private static final String STAGING_PREFIX = ".staging-";
+	private static final String MARKER_SUFFIX = ".lock";
+	private final CopyStrategy strategy;
+	private final boolean sync;
+
+	/**
+	 * Provides a builder for file set publishers.
+	 */
+	public static class Builder {
+		private CopyStrategy strategy = CopyStrategy.with(CopyMethod.COPY);
+		private boolean sync = true;
+
+		/**
+		 * Creates a new builder.
+		 */
+		public Builder() {
+			super();
+		}
+
+		/**
+		 * Sets the strategy for copying resources into the staging folder.
+		 * The default is to copy. Note that if the strategy creates hard links,
+		 * the published file set shares files with the source.
+		 * @param value the strategy
+		 * @return this builder
+		 */
+		public Builder copyStrategy(CopyStrategy value) {
+			this.strategy = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets whether files and folders should be forced to disk before the staging
+		 * folder is renamed. The default is true.
+		 * @param value true to force files to disk, false otherwise
+		 * @return this builder
+		 */
+		public Builder sync(boolean value) {
+			this.sync = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new publisher.
+		 * @return a new publisher
+		 */
+		public FileSetPublisher build() {
+			return new FileSetPublisher(this);
+		}
+	}
+
+	private FileSetPublisher(Builder builder) {
+		this.strategy = builder.strategy;
+		this.sync = builder.sync;
+	}
+
+	/**
+	 * Creates a new builder.
+	 * @return a new builder
+	 */
+	public static Builder with() {
+		return new Builder();
+	}
+
+	/**
+	 * Creates a new publisher with the default settings.
+	 * @return a new publisher
+	 */
+	public static FileSetPublisher newInstance() {
+		return new Builder().build();
+	}
+
+	/**
+	 * Publishes the specified file set at the specified location.
+	 * @param source the file set
+	 * @param target the target folder, this folder must not exist
+	 * @return the published file set
+	 * @throws FileAlreadyExistsException if the target folder exists, or if it is being
+	 * 		published by another publisher
+	 * @throws IOException if an I/O error occurs
+	 */
+	public DefaultFileSet publish(FileSet source, BaseFolder target) throws IOException {
+		Path dir = target.getPath().toAbsolutePath().normalize();
+		if (Files.exists(dir)) {
+			throw new FileAlreadyExistsException(dir.toString());
+		}
+		Path parent = dir.getParent();
+		Files.createDirectories(parent);
+		Path marker = parent.resolve(STAGING_PREFIX + dir.getFileName().toString() + MARKER_SUFFIX);
+		try {
+			Files.createFile(marker);
+		} catch (FileAlreadyExistsException e) {
+			throw new FileAlreadyExistsException(dir.toString(), marker.toString(), "Publishing in progress");
+		}
+		try {
+			return publish(source, dir, parent);
+		} finally {
+			Files.deleteIfExists(marker);
+		}
+	}
+
+	private DefaultFileSet publish(FileSet source, Path dir, Path parent) throws IOException {
+		// The staging folder must be on the same file system as the target, so that it can be renamed
+		Path staging = Files.createTempDirectory(parent, STAGING_PREFIX + dir.getFileName().toString() + "-");
+		try {
+			DefaultFileSet staged = DefaultFileSet.copy(source, BaseFolder.with(staging), strategy);
+			List<String> external = staged.streamExternal().map(v->v.getPath().toString()).collect(Collectors.toList());
+			if (!external.isEmpty()) {
+				throw new IOException("Resources could not be copied to the staging folder: " + external);
+			}
+			if (sync) {
+				force(staging);
+			}
+			// Check again, the target may have been created while copying
+			if (Files.exists(dir)) {
+				throw new FileAlreadyExistsException(dir.toString());
+			}
+			Files.move(staging, dir, StandardCopyOption.ATOMIC_MOVE);
+			if (sync) {
+				FileUtils.forceDirectory(parent);
+			}
+			return rebase(staged, staging, dir);
+		} catch (IOException | RuntimeException e) {
+			try {
+				FileUtils.deleteRecursively(staging);
+			} catch (IOException e2) {
+				logger.log(Level.WARNING, "Could not remove staging folder: " + staging, e2);
+			}
+			throw e;
+		}
+	}
+
+	private static DefaultFileSet rebase(DefaultFileSet staged, Path from, Path to) {
+		DefaultFileSet.Builder builder = DefaultFileSet.with(
+				BaseFolder.with(to),
+				relocate(staged.getManifest(), from, to),
+				staged.getManifestPath());
+		builder.formatIdentifier(staged.getFormatIdentifier().orElse(null));
+		for (String key : staged.getResourcePaths()) {
+			if (!key.equals(staged.getManifestPath())) {
+				builder.add(relocate(staged.getResourceForKey(key).get(), from, to), key);
+			}
+		}
+		return builder.build();
+	}
+
+	private static AnnotatedFile relocate(AnnotatedFile f, Path from, Path to) {
+		return DefaultAnnotatedFile.with(f).file(to.resolve(from.relativize(f.getPath().toAbsolutePath().normalize()))).build();
+	}
+
+	private static void force(Path dir) throws IOException {
+		List<Path> dirs = new ArrayList<>();
+		try (Stream<Path> s = Files.walk(dir)) {
+			for (Path p : (Iterable<Path>)s::iterator) {
+				if (Files.isDirectory(p)) {
+					dirs.add(p);
+				} else {
+					try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ)) {
+						fc.force(true);
+					}
+				}
+			}
+		}
+		// Directory entries are forced after the files they contain
+		for (Path p : dirs) {
+			FileUtils.forceDirectory(p);
+		}
+	}
+
+}
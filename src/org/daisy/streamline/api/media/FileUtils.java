@@ -0,0 +1,62 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Provides file system operations shared by the classes in this package.
+ *
+ * @author Joel Håkansson
+ */
+final class FileUtils {
+	private static final Logger logger = Logger.getLogger(FileUtils.class.getCanonicalName());
+
+	private FileUtils() {
+		// No instances
+	}
+
+	/**
+	 * Forces the entries of a directory to disk, for example after a file has been
+	 * moved into it. Not all platforms allow directories to be opened, in which case
+	 * this is a no-op.
+	 * @param dir the directory
+	 */
+	static void forceDirectory(Path dir) {
+		try (FileChannel fc = FileChannel.open(dir, StandardOpenOption.READ)) {
+			fc.force(true);
+		} catch (IOException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Could not force directory: " + dir, e);
+			}
+		}
+	}
+
+	/**
+	 * Deletes a directory and its contents. If the directory doesn't exist,
+	 * this is a no-op.
+	 * @param dir the directory
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void deleteRecursively(Path dir) throws IOException {
+		List<Path> paths;
+		try (Stream<Path> s = Files.walk(dir)) {
+			paths = s.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		} catch (NoSuchFileException e) {
+			return;
+		}
+		for (Path p : paths) {
+			Files.delete(p);
+		}
+	}
+
+}
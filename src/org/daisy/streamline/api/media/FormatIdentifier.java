@@ -1,25 +1,77 @@
 package org.daisy.streamline.api.media;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
- * Provides an identifier for a format.
+ * <p>Provides an identifier for a format.</p>
+ *
+ * <p>Instances are canonical: as long as an identifier is in use, {@link #with(String)}
+ * returns the same instance for the same identifier value. Identifiers can therefore be
+ * compared by reference, and equality checks on equal identifiers don't have to compare
+ * strings. Identifiers that are no longer in use are released.</p>
+ *
  * @author Joel Håkansson
  */
 public final class FormatIdentifier {
+	private static final ConcurrentMap<String, Ref> INTERNED = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<FormatIdentifier> QUEUE = new ReferenceQueue<>();
 	private final String identifier;
+	private final int hash;
+
+	private static final class Ref extends WeakReference<FormatIdentifier> {
+		private final String key;
+
+		private Ref(FormatIdentifier referent) {
+			super(referent, QUEUE);
+			this.key = referent.identifier;
+		}
+	}
 
 	private FormatIdentifier(String identifier) {
-		this.identifier = Objects.requireNonNull(identifier);
+		this.identifier = identifier;
+		this.hash = 31 + identifier.hashCode();
 	}
 
 	/**
-	 * Creates a new format identifier.
+	 * Gets the format identifier with the specified value.
 	 * @param identifier the identifier
-	 * @return the new instance
+	 * @return the format identifier
+	 * @throws NullPointerException if the identifier is null
 	 */
 	public static FormatIdentifier with(String identifier) {
-		return new FormatIdentifier(identifier);
+		Objects.requireNonNull(identifier);
+		Ref ref = INTERNED.get(identifier);
+		FormatIdentifier ret = ref!=null ? ref.get() : null;
+		if (ret!=null) {
+			return ret;
+		}
+		expunge();
+		FormatIdentifier created = new FormatIdentifier(identifier);
+		while (true) {
+			ref = INTERNED.putIfAbsent(identifier, new Ref(created));
+			if (ref==null) {
+				return created;
+			}
+			ret = ref.get();
+			if (ret!=null) {
+				return ret;
+			} else if (INTERNED.replace(identifier, ref, new Ref(created))) {
+				// The previous instance has been released
+				return created;
+			}
+		}
+	}
+
+	private static void expunge() {
+		Ref ref;
+		while ((ref = (Ref)QUEUE.poll())!=null) {
+			// Only removes the entry if it hasn't been replaced
+			INTERNED.remove(ref.key, ref);
+		}
 	}
 
 	/**
@@ -32,27 +84,20 @@ public final class FormatIdentifier {
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((identifier == null) ? 0 : identifier.hashCode());
-		return result;
+		return hash;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
 			return true;
+		// Equal instances are normally the same instance, so this is only reached for different identifiers
 		if (obj == null)
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
 		FormatIdentifier other = (FormatIdentifier) obj;
-		if (identifier == null) {
-			if (other.identifier != null)
-				return false;
-		} else if (!identifier.equals(other.identifier))
-			return false;
-		return true;
+		return hash == other.hash && identifier.equals(other.identifier);
 	}
 
 	@Override
@@ -0,0 +1,30 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+
+/**
+ * Provides a listener for the progress of an asynchronous internalization
+ * of several resources in a {@link ModifiableFileSet}. The listener is called
+ * once for each resource that is processed, as soon as it has been processed.
+ * Calls may be made concurrently from several threads.
+ * 
+ * @author Joel Håkansson
+ */
+@FunctionalInterface
+public interface InternalizationListener {
+
+	/**
+	 * Called when a resource has been internalized.
+	 * @param path the resource path
+	 * @param file the resource at its new location
+	 */
+	public void internalized(String path, AnnotatedFile file);
+
+	/**
+	 * Called when a resource could not be internalized.
+	 * @param path the resource path
+	 * @param cause the cause of the failure
+	 */
+	public default void failed(String path, IOException cause) {}
+
+}
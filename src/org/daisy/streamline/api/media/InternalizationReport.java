@@ -0,0 +1,120 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Provides a report of an internalization of several resources in a
+ * {@link ModifiableFileSet}. Resources that didn't need to be internalized,
+ * because they were already inside the file set, and resources that can't be
+ * internalized, because their path points outside of the base folder, are
+ * skipped. Skipped resources are not included in the report.
+ * 
+ * @author Joel Håkansson
+ */
+public final class InternalizationReport {
+	private final Set<String> internalized;
+	private final Map<String, CopyMethod> methods;
+	private final Map<String, IOException> failures;
+
+	/**
+	 * Provides a builder for internalization reports.
+	 */
+	public static class Builder {
+		private final Set<String> internalized = new HashSet<>();
+		private final Map<String, CopyMethod> methods = new HashMap<>();
+		private final Map<String, IOException> failures = new HashMap<>();
+
+		/**
+		 * Adds a resource that was successfully internalized.
+		 * @param path the resource path
+		 * @return this builder
+		 */
+		public Builder internalized(String path) {
+			internalized.add(path);
+			return this;
+		}
+		
+		/**
+		 * Adds a resource that was successfully internalized by copying it.
+		 * @param path the resource path
+		 * @param method the method that was used to copy the resource
+		 * @return this builder
+		 */
+		public Builder internalized(String path, CopyMethod method) {
+			internalized.add(path);
+			methods.put(path, method);
+			return this;
+		}
+
+		/**
+		 * Adds a resource that could not be internalized.
+		 * @param path the resource path
+		 * @param cause the cause of the failure
+		 * @return this builder
+		 */
+		public Builder failed(String path, IOException cause) {
+			failures.put(path, cause);
+			return this;
+		}
+
+		/**
+		 * Builds a new report based on the current state of this builder.
+		 * @return a new report
+		 */
+		public InternalizationReport build() {
+			return new InternalizationReport(this);
+		}
+	}
+
+	private InternalizationReport(Builder builder) {
+		this.internalized = Collections.unmodifiableSet(new HashSet<>(builder.internalized));
+		this.methods = Collections.unmodifiableMap(new HashMap<>(builder.methods));
+		this.failures = Collections.unmodifiableMap(new HashMap<>(builder.failures));
+	}
+
+	/**
+	 * Gets the paths of the resources that were internalized.
+	 * @return the resource paths
+	 */
+	public Set<String> getInternalized() {
+		return internalized;
+	}
+
+	/**
+	 * Gets the method that was used to copy the specified resource.
+	 * @param path the resource path
+	 * @return the copy method, or an empty optional if the resource wasn't copied
+	 */
+	public Optional<CopyMethod> getCopyMethod(String path) {
+		return Optional.ofNullable(methods.get(path));
+	}
+
+	/**
+	 * Gets the paths of the resources that could not be internalized, 
+	 * together with the cause of each failure.
+	 * @return a map of resource paths and exceptions
+	 */
+	public Map<String, IOException> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns true if all resources were successfully internalized.
+	 * @return true if there were no failures, false otherwise
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "InternalizationReport [internalized=" + internalized + ", failures=" + failures + "]";
+	}
+
+}
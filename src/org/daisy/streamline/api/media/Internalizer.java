@@ -0,0 +1,62 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides the internalization used by the default methods of {@link ModifiableFileSet}.
+ *
+ * @author Joel Håkansson
+ */
+final class Internalizer {
+	private static final Logger logger = Logger.getLogger(Internalizer.class.getCanonicalName());
+
+	private Internalizer() {
+		// No instances
+	}
+
+	/**
+	 * Internalizes the matching resources of a file set one at a time. Like in
+	 * {@link DefaultFileSet}, resources that are already inside the base folder, or
+	 * whose path points outside of it, are skipped and not included in the report.
+	 * @param fs the file set
+	 * @param filter the resources to process
+	 * @param action the internalization action, returns true if successful
+	 * @param listener the listener
+	 * @return a report
+	 */
+	static InternalizationReport internalizeEach(ModifiableFileSet fs, BiPredicate<String, AnnotatedFile> filter, Predicate<String> action, InternalizationListener listener) {
+		InternalizationReport.Builder report = new InternalizationReport.Builder();
+		Path base = fs.getBaseFolder().getPath();
+		for (String k : fs.getResourcePaths()) {
+			fs.getResourceForKey(k).filter(f->canInternalize(base, k, f) && filter.test(k, f)).ifPresent(f->{
+				if (action.test(k)) {
+					report.internalized(k);
+					notify(()->listener.internalized(k, fs.getResourceForKey(k).get()));
+				} else {
+					IOException e = new IOException("Could not internalize " + f.getPath());
+					report.failed(k, e);
+					notify(()->listener.failed(k, e));
+				}
+			});
+		}
+		return report.build();
+	}
+
+	private static boolean canInternalize(Path base, String key, AnnotatedFile f) {
+		return !DefaultFileSet.isDescendant(base, f.getPath()) && DefaultFileSet.isDescendant(base, base.resolve(key));
+	}
+
+	private static void notify(Runnable r) {
+		try {
+			r.run();
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Listener failed", e);
+		}
+	}
+
+}
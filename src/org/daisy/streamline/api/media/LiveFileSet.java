@@ -0,0 +1,479 @@
+package org.daisy.streamline.api.media;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a file set that follows the contents of its base folder. When the
+ * file set is built, the base folder is scanned once. After that, the file set is
+ * updated incrementally as files are created, modified or deleted, and the changes
+ * are reported to the listeners that have been added with {@link #addListener(Consumer)}.</p>
+ *
+ * <p>Changes are detected using a {@link WatchService}. If the file system doesn't
+ * support watching, or if polling has been requested, the base folder is instead
+ * rescanned at a fixed interval. Either way, a file is considered modified when
+ * its size or last modified time has changed.</p>
+ *
+ * <p>Changes are reported as they are detected, without waiting for the writer
+ * to finish. A file that is still being written is therefore reported as
+ * {@link ChangeType#ADDED} with its partial contents. It is then reported as
+ * {@link ChangeType#MODIFIED}, possibly several times, until it is complete.</p>
+ *
+ * <p>Listeners are called from a background thread. The file set must be closed
+ * when it is no longer used, in order to stop that thread.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class LiveFileSet implements FileSet, Closeable {
+	private static final Logger logger = Logger.getLogger(LiveFileSet.class.getCanonicalName());
+	private final BaseFolder baseFolder;
+	private final AnnotatedFile manifest;
+	private final String manifestPath;
+	private final Function<Path, AnnotatedFile> annotator;
+	private final FormatIdentifier formatIdentifier;
+	private final Duration pollInterval;
+	private final Map<String, Resource> resources;
+	private final Map<WatchKey, Path> watchKeys;
+	private final List<Consumer<ResourceChange>> listeners;
+	private final WatchService watcher;
+	private final Thread thread;
+	private volatile boolean closed;
+
+	/**
+	 * Provides a builder for live file sets.
+	 */
+	public static class Builder {
+		private final BaseFolder baseFolder;
+		private final AnnotatedFile manifest;
+		private Function<Path, AnnotatedFile> annotator = p->DefaultAnnotatedFile.with(p).extension(p).build();
+		private FormatIdentifier formatIdentifier = null;
+		private Duration pollInterval = Duration.ofSeconds(5);
+		private boolean polling = false;
+
+		/**
+		 * Creates a new builder with the specified base folder and manifest.
+		 * @param baseFolder the base folder
+		 * @param manifest the manifest, this file must be a descendant of the base folder
+		 */
+		public Builder(BaseFolder baseFolder, AnnotatedFile manifest) {
+			this.baseFolder = Objects.requireNonNull(baseFolder);
+			this.manifest = Objects.requireNonNull(manifest);
+			DefaultFileSet.requireDescendant(baseFolder.getPath(), manifest.getPath());
+		}
+
+		/**
+		 * Sets the function used to create a resource when a file is found or modified.
+		 * By default, resources are annotated with their file extension only.
+		 * @param value the function
+		 * @return this builder
+		 */
+		public Builder annotator(Function<Path, AnnotatedFile> value) {
+			this.annotator = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the format identifier for the file set.
+		 * @param value the format identifier
+		 * @return this builder
+		 */
+		public Builder formatIdentifier(FormatIdentifier value) {
+			this.formatIdentifier = value;
+			return this;
+		}
+
+		/**
+		 * Sets the interval between scans when polling. The default is 5 seconds.
+		 * @param value the interval
+		 * @return this builder
+		 * @throws IllegalArgumentException if the interval isn't positive
+		 */
+		public Builder pollInterval(Duration value) {
+			if (value.isNegative() || value.isZero()) {
+				throw new IllegalArgumentException("Not a positive duration: " + value);
+			}
+			this.pollInterval = value;
+			return this;
+		}
+
+		/**
+		 * Sets whether to poll for changes even if the file system supports
+		 * watching. This can be useful for network file systems, where changes
+		 * made by other hosts aren't always reported. The default is false.
+		 * @param value true to poll, false otherwise
+		 * @return this builder
+		 */
+		public Builder polling(boolean value) {
+			this.polling = value;
+			return this;
+		}
+
+		/**
+		 * Scans the base folder and starts following it.
+		 * @return a new live file set
+		 * @throws IOException if the base folder cannot be scanned
+		 */
+		public LiveFileSet build() throws IOException {
+			return new LiveFileSet(this);
+		}
+	}
+
+	private static final class Resource {
+		private final AnnotatedFile file;
+		private final long size;
+		private final long modified;
+
+		private Resource(AnnotatedFile file, long size, long modified) {
+			this.file = file;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+
+	private LiveFileSet(Builder builder) throws IOException {
+		this.baseFolder = builder.baseFolder;
+		this.manifest = builder.manifest;
+		this.manifestPath = baseFolder.getPath().relativize(manifest.getPath().normalize()).toString();
+		this.annotator = builder.annotator;
+		this.formatIdentifier = builder.formatIdentifier;
+		this.pollInterval = builder.pollInterval;
+		this.resources = new ConcurrentHashMap<>();
+		this.watchKeys = new ConcurrentHashMap<>();
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.closed = false;
+		this.watcher = builder.polling ? null : newWatchService(baseFolder.getPath());
+		try {
+			scan(baseFolder.getPath(), false, null);
+		} catch (IOException e) {
+			if (watcher!=null) {
+				watcher.close();
+			}
+			throw e;
+		}
+		this.thread = new Thread(watcher!=null ? this::watch : this::poll, "LiveFileSet " + baseFolder.getPath());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Creates a new builder with the specified base folder and manifest.
+	 * @param baseFolder the base folder
+	 * @param manifest the manifest, this file must be a descendant of the base folder
+	 * @return a new builder
+	 */
+	public static Builder with(BaseFolder baseFolder, AnnotatedFile manifest) {
+		return new Builder(baseFolder, manifest);
+	}
+
+	private static WatchService newWatchService(Path dir) {
+		try {
+			return dir.getFileSystem().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			if (logger.isLoggable(Level.FINE)) {
+				logger.log(Level.FINE, "Watching not supported, polling instead: " + dir, e);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a listener that is notified about each change to the file set.
+	 * @param listener the listener
+	 */
+	public void addListener(Consumer<ResourceChange> listener) {
+		listeners.add(Objects.requireNonNull(listener));
+	}
+
+	/**
+	 * Removes a listener.
+	 * @param listener the listener
+	 */
+	public void removeListener(Consumer<ResourceChange> listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns true if changes are detected by polling rather than by watching the file system.
+	 * @return true if polling, false otherwise
+	 */
+	public boolean isPolling() {
+		return watcher==null;
+	}
+
+	/**
+	 * Scans the base folder immediately and reports any changes that have
+	 * not been reported yet. This is normally not needed.
+	 * @throws IOException if the base folder cannot be scanned
+	 */
+	public synchronized void refresh() throws IOException {
+		Set<String> seen = new HashSet<>();
+		scan(baseFolder.getPath(), true, seen);
+		for (String key : new ArrayList<>(resources.keySet())) {
+			if (!seen.contains(key)) {
+				remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Scans a directory, registers it and its sub directories with the watch service and
+	 * updates the resources found.
+	 */
+	private synchronized void scan(Path dir, boolean notify, Set<String> seen) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+				if (watcher!=null) {
+					watchKeys.put(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), d);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()) {
+					String key = toKey(file);
+					if (seen!=null) {
+						seen.add(key);
+					}
+					update(key, file, attrs, notify);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+				if (e instanceof NoSuchFileException && !file.equals(dir)) {
+					// Deleted while scanning
+					return FileVisitResult.CONTINUE;
+				}
+				throw e;
+			}
+		});
+	}
+
+	private String toKey(Path p) {
+		return baseFolder.getPath().relativize(p).toString();
+	}
+
+	private void update(String key, Path file, BasicFileAttributes attrs, boolean notify) {
+		long size = attrs.size();
+		long modified = attrs.lastModifiedTime().toMillis();
+		Resource before = resources.get(key);
+		if (before!=null && before.size==size && before.modified==modified) {
+			return;
+		}
+		Resource after = new Resource(manifestPath.equals(key) ? manifest : annotator.apply(file), size, modified);
+		resources.put(key, after);
+		if (notify) {
+			fire(before==null ? ResourceChange.added(key, after.file) : ResourceChange.modified(key, before.file, after.file));
+		}
+	}
+
+	private void remove(String key) {
+		Resource before = resources.remove(key);
+		if (before!=null) {
+			fire(ResourceChange.removed(key, before.file));
+		}
+	}
+
+	private void removeBelow(String key) {
+		String prefix = key + baseFolder.getPath().getFileSystem().getSeparator();
+		for (String k : new ArrayList<>(resources.keySet())) {
+			if (k.startsWith(prefix)) {
+				remove(k);
+			}
+		}
+	}
+
+	private void fire(ResourceChange change) {
+		for (Consumer<ResourceChange> l : listeners) {
+			try {
+				l.accept(change);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Listener failed: " + change.getPath(), e);
+			}
+		}
+	}
+
+	private void watch() {
+		while (!closed) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+			Path dir = watchKeys.get(key);
+			boolean overflow = false;
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind()==StandardWatchEventKinds.OVERFLOW || dir==null) {
+					overflow = true;
+				} else {
+					handle(event.kind(), dir.resolve((Path)event.context()));
+				}
+			}
+			if (!key.reset()) {
+				watchKeys.remove(key);
+			}
+			if (overflow) {
+				// Events have been lost
+				refreshQuietly();
+			}
+		}
+	}
+
+	private synchronized void handle(WatchEvent.Kind<?> kind, Path p) {
+		String key = toKey(p);
+		try {
+			if (kind==StandardWatchEventKinds.ENTRY_DELETE) {
+				if (resources.containsKey(key)) {
+					remove(key);
+				} else {
+					removeBelow(key);
+				}
+				return;
+			}
+			BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (attrs.isDirectory()) {
+				if (kind==StandardWatchEventKinds.ENTRY_CREATE) {
+					// Files may have been added before the directory was registered
+					scan(p, true, null);
+				}
+			} else if (attrs.isRegularFile()) {
+				update(key, p, attrs, true);
+			}
+		} catch (NoSuchFileException e) {
+			// Deleted before the event was handled, a delete event follows
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to update: " + p, e);
+		}
+	}
+
+	private void poll() {
+		while (!closed) {
+			try {
+				Thread.sleep(pollInterval.toMillis());
+			} catch (InterruptedException e) {
+				break;
+			}
+			if (!closed) {
+				refreshQuietly();
+			}
+		}
+	}
+
+	private void refreshQuietly() {
+		try {
+			refresh();
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Failed to scan: " + baseFolder.getPath(), e);
+		}
+	}
+
+	/**
+	 * Stops following the base folder and waits for the background thread to finish,
+	 * so that no listener is called after this method returns (unless it is called
+	 * from a listener). The file set keeps its current contents.
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		thread.interrupt();
+		if (watcher!=null) {
+			watcher.close();
+		}
+		if (Thread.currentThread()!=thread) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public BaseFolder getBaseFolder() {
+		return baseFolder;
+	}
+
+	@Override
+	public AnnotatedFile getManifest() {
+		return manifest;
+	}
+
+	@Override
+	public String getManifestPath() {
+		return manifestPath;
+	}
+
+	@Override
+	public boolean isManifest(String path) {
+		return manifestPath.equals(DefaultFileSet.normalizeRelativePath(baseFolder.getPath(), path));
+	}
+
+	@Override
+	public Optional<FormatIdentifier> getFormatIdentifier() {
+		return Optional.ofNullable(formatIdentifier);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>The returned set is a view that reflects subsequent changes.</p>
+	 */
+	@Override
+	public Set<String> getResourcePaths() {
+		return Collections.unmodifiableSet(resources.keySet());
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResourceForKey(String key) {
+		return Optional.ofNullable(resources.get(key)).map(v->v.file);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(String path) {
+		return getResourceForKey(DefaultFileSet.normalizeRelativePath(baseFolder.getPath(), path));
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(Path path) {
+		return getResource(baseFolder.getPath().relativize(path).toString());
+	}
+
+	@Override
+	public Stream<AnnotatedFile> streamExternal() {
+		// All resources are in the base folder
+		return Stream.empty();
+	}
+
+}
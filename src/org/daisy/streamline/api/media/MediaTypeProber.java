@@ -0,0 +1,39 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>Provides an interface for determining the media type of a file. Unlike
+ * {@link java.nio.file.Files#probeContentType(Path)}, an implementation can be
+ * selected by the caller, for example when annotating a large number of files
+ * with {@link DefaultAnnotatedFile#create(Path, MediaTypeProber)}.</p>
+ * 
+ * <p>To comply with this interface, an implementation must be thread safe.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public interface MediaTypeProber {
+
+	/**
+	 * Probes the media type of the specified file.
+	 * @param path the path to the file
+	 * @return the media type, or null if the media type could not be determined
+	 * @throws IOException if an I/O error occurs
+	 */
+	public String probeContentType(Path path) throws IOException;
+	
+	/**
+	 * Returns a prober that uses this prober first, and the specified prober if
+	 * this prober cannot determine the media type.
+	 * @param other the prober to use if this prober returns null
+	 * @return a new prober
+	 */
+	public default MediaTypeProber orElse(MediaTypeProber other) {
+		return path -> {
+			String ret = probeContentType(path);
+			return ret!=null ? ret : other.probeContentType(path);
+		};
+	}
+
+}
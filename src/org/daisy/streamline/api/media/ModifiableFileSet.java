@@ -1,6 +1,8 @@
 package org.daisy.streamline.api.media;
 
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Provides a modifiable file set.
@@ -62,4 +64,69 @@ public interface ModifiableFileSet extends FileSet {
 	 */
 	public boolean internalize(String path);
 
+	/**
+	 * Asynchronously internalizes the specified file set path by copying the original resource
+	 * into the file set, see {@link #internalizeCopy(String)}.
+	 * @param path the path
+	 * @param executor the executor to run the task on
+	 * @return a future that completes with true if the file was successfully internalized, false otherwise
+	 */
+	public default CompletableFuture<Boolean> internalizeCopyAsync(String path, Executor executor) {
+		return CompletableFuture.supplyAsync(()->internalizeCopy(path), executor);
+	}
+
+	/**
+	 * Asynchronously internalizes the specified file set path by moving the resource from
+	 * its current location into the file set, see {@link #internalize(String)}.
+	 * @param path the path
+	 * @param executor the executor to run the task on
+	 * @return a future that completes with true if the file was successfully internalized, false otherwise
+	 */
+	public default CompletableFuture<Boolean> internalizeAsync(String path, Executor executor) {
+		return CompletableFuture.supplyAsync(()->internalize(path), executor);
+	}
+
+	/**
+	 * Asynchronously copies all external resources into this file set,
+	 * see {@link #internalizeAllCopy()}.
+	 * @param executor the executor to run the tasks on
+	 * @return a future that completes with a report of the internalized resources
+	 */
+	public default CompletableFuture<InternalizationReport> internalizeAllCopyAsync(Executor executor) {
+		return internalizeAllCopyAsync(executor, (p, f)->{});
+	}
+
+	/**
+	 * <p>Asynchronously copies all external resources into this file set,
+	 * see {@link #internalizeAllCopy()}. The listener is notified as each resource
+	 * is processed.</p>
+	 * 
+	 * <p>The default implementation processes the resources one at a time in a single
+	 * task. Implementations should override this method if they can do better.</p>
+	 * @param executor the executor to run the tasks on
+	 * @param listener the listener
+	 * @return a future that completes with a report of the internalized resources
+	 */
+	public default CompletableFuture<InternalizationReport> internalizeAllCopyAsync(Executor executor, InternalizationListener listener) {
+		return CompletableFuture.supplyAsync(()->
+			Internalizer.internalizeEach(this, (k, f)->!DefaultFileSet.isDescendant(getBaseFolder().getPath(), f.getPath()), this::internalizeCopy, listener), executor);
+	}
+
+	/**
+	 * <p>Asynchronously moves all resources located in the specified directory into this file set,
+	 * see {@link #internalizeBelow(Path)}. The listener is notified as each resource
+	 * is processed.</p>
+	 * 
+	 * <p>The default implementation processes the resources one at a time in a single
+	 * task. Implementations should override this method if they can do better.</p>
+	 * @param base the directory
+	 * @param executor the executor to run the tasks on
+	 * @param listener the listener
+	 * @return a future that completes with a report of the internalized resources
+	 */
+	public default CompletableFuture<InternalizationReport> internalizeBelowAsync(Path base, Executor executor, InternalizationListener listener) {
+		return CompletableFuture.supplyAsync(()->
+			Internalizer.internalizeEach(this, (k, f)->DefaultFileSet.isDescendant(base, f.getPath()), this::internalize, listener), executor);
+	}
+
 }
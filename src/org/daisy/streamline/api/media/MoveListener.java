@@ -0,0 +1,26 @@
+package org.daisy.streamline.api.media;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Provides a listener for the progress of a {@link FileMover} when a file
+ * is copied between file stores. The listener is called after each chunk
+ * has been copied. Moves within a file store are not reported.
+ *
+ * @author Joel Håkansson
+ */
+@FunctionalInterface
+public interface MoveListener {
+
+	/**
+	 * Called when a chunk has been copied.
+	 * @param source the file being moved
+	 * @param transferred the number of bytes in the target so far, including bytes
+	 * 			copied by an earlier, interrupted move
+	 * @param size the size of the file
+	 * @param elapsed the time spent copying in this attempt
+	 */
+	public void progress(Path source, long transferred, long size, Duration elapsed);
+
+}
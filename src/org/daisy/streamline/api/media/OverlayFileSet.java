@@ -0,0 +1,287 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a modifiable file set consisting of two layers. The lower layer is a file set
+ * that is never modified. The upper layer is a folder that contains the resources that
+ * have been modified or added. When a resource is requested, the upper layer is consulted
+ * first.</p>
+ *
+ * <p>A resource is modified by requesting a writable path for it, see {@link #getWritablePath(String)}.
+ * This copies the resource from the lower layer, if it isn't already in the upper layer. Thus,
+ * the cost of a modification is proportional to the size of the modified resources rather than
+ * the size of the file set. When a real folder with all resources is needed, the file set can be
+ * flattened, see {@link #flatten(BaseFolder)}.</p>
+ *
+ * <p>The base folder of this file set is the upper layer. In other words, all resources in the lower
+ * layer are considered external until they are internalized. Since the lower layer is never modified,
+ * resources are always copied when internalized, also by {@link #internalize(String)} and
+ * {@link #internalizeBelow(Path)}.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class OverlayFileSet implements ModifiableFileSet {
+	private static final Logger logger = Logger.getLogger(OverlayFileSet.class.getCanonicalName());
+	private final FileSet lower;
+	private final BaseFolder upper;
+	private final Map<String, AnnotatedFile> resources;
+	private final Set<String> removed;
+
+	private OverlayFileSet(FileSet lower, BaseFolder upper) {
+		this.lower = Objects.requireNonNull(lower);
+		this.upper = Objects.requireNonNull(upper);
+		this.resources = new ConcurrentHashMap<>();
+		this.removed = ConcurrentHashMap.newKeySet();
+	}
+
+	/**
+	 * Creates a new overlay file set.
+	 * @param lower the lower layer, this file set is never modified
+	 * @param upper the upper layer, it is recommended that this folder is empty
+	 * @return a new overlay file set
+	 */
+	public static OverlayFileSet with(FileSet lower, BaseFolder upper) {
+		return new OverlayFileSet(lower, upper);
+	}
+
+	/**
+	 * Gets the lower layer of this file set.
+	 * @return the lower layer
+	 */
+	public FileSet getLowerLayer() {
+		return lower;
+	}
+
+	/**
+	 * <p>Gets a path where the resource at the specified path can be modified. The first
+	 * time this method is called for a path, the resource is copied from the lower
+	 * layer to the upper layer. If the resource doesn't exist, it is added to the
+	 * file set and the returned path doesn't exist until it is written to.</p>
+	 *
+	 * <p>The resource keeps its annotations. Use {@link #setResource(String, AnnotatedFile)}
+	 * to update them.</p>
+	 * @param path the path to the resource within the file set
+	 * @return the path to the resource in the upper layer
+	 * @throws IOException if the resource could not be copied
+	 * @throws IllegalArgumentException if the path is outside of the base folder
+	 */
+	public synchronized Path getWritablePath(String path) throws IOException {
+		String key = normalize(path);
+		AnnotatedFile f = resources.get(key);
+		if (f==null) {
+			Path target = DefaultFileSet.requireDescendant(upper.getPath(), upper.getPath().resolve(key));
+			Files.createDirectories(target.getParent());
+			Optional<AnnotatedFile> original = removed.contains(key) ? Optional.empty() : lower.getResourceForKey(key);
+			if (original.isPresent()) {
+				Files.copy(original.get().getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+				f = DefaultAnnotatedFile.with(original.get()).file(target).build();
+			} else {
+				f = DefaultAnnotatedFile.with(target).extension(target).build();
+			}
+			resources.put(key, f);
+			removed.remove(key);
+		}
+		return f.getPath();
+	}
+
+	/**
+	 * Sets the resource at the specified path, for example to update its annotations
+	 * after it has been modified.
+	 * @param path the path to the resource within the file set
+	 * @param f the resource, this file must be located in the upper layer
+	 * @throws IllegalArgumentException if the file is not located in the upper layer
+	 */
+	public void setResource(String path, AnnotatedFile f) {
+		DefaultFileSet.requireDescendant(upper.getPath(), f.getPath());
+		String key = normalize(path);
+		resources.put(key, f);
+		removed.remove(key);
+	}
+
+	/**
+	 * Removes the resource at the specified path from this file set. The resource is
+	 * deleted from the upper layer, but the lower layer is left unchanged.
+	 * @param path the path to the resource within the file set
+	 * @return true if the resource was removed, false if it didn't exist
+	 * @throws IOException if the resource could not be deleted from the upper layer
+	 * @throws IllegalArgumentException if the path is the manifest
+	 */
+	public synchronized boolean remove(String path) throws IOException {
+		String key = normalize(path);
+		if (lower.getManifestPath().equals(key)) {
+			throw new IllegalArgumentException("The manifest cannot be removed.");
+		}
+		AnnotatedFile f = resources.remove(key);
+		if (f!=null) {
+			Files.deleteIfExists(f.getPath());
+		}
+		boolean inLower = !removed.contains(key) && lower.getResourceForKey(key).isPresent();
+		if (inLower) {
+			removed.add(key);
+		}
+		return f!=null || inLower;
+	}
+
+	/**
+	 * Returns true if the resource at the specified path is located in the upper layer.
+	 * @param path the path
+	 * @return true if the resource has been modified, added or internalized, false otherwise
+	 */
+	public boolean isModified(String path) {
+		return resources.containsKey(normalize(path));
+	}
+
+	/**
+	 * Creates a new file set with all resources in the specified folder.
+	 * This file set is not modified.
+	 * @param target the new location
+	 * @return the created file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	public DefaultFileSet flatten(BaseFolder target) throws IOException {
+		return DefaultFileSet.copy(this, target);
+	}
+
+	/**
+	 * Creates a new file set with all resources in the specified folder
+	 * using the specified copy strategy. This file set is not modified.
+	 * Note that if the strategy creates hard links, the returned file set
+	 * shares files with both layers.
+	 * @param target the new location
+	 * @param strategy the copy strategy
+	 * @return the created file set
+	 * @throws IOException if an I/O error occurs
+	 */
+	public DefaultFileSet flatten(BaseFolder target, CopyStrategy strategy) throws IOException {
+		return DefaultFileSet.copy(this, target, strategy);
+	}
+
+	private String normalize(String path) {
+		return DefaultFileSet.normalizeRelativePath(upper.getPath(), path);
+	}
+
+	@Override
+	public BaseFolder getBaseFolder() {
+		return upper;
+	}
+
+	@Override
+	public AnnotatedFile getManifest() {
+		return resources.getOrDefault(lower.getManifestPath(), lower.getManifest());
+	}
+
+	@Override
+	public String getManifestPath() {
+		return lower.getManifestPath();
+	}
+
+	@Override
+	public boolean isManifest(String path) {
+		return lower.getManifestPath().equals(normalize(path));
+	}
+
+	@Override
+	public Optional<FormatIdentifier> getFormatIdentifier() {
+		return lower.getFormatIdentifier();
+	}
+
+	@Override
+	public Set<String> getResourcePaths() {
+		Set<String> ret = new HashSet<>(lower.getResourcePaths());
+		ret.removeAll(removed);
+		ret.addAll(resources.keySet());
+		return Collections.unmodifiableSet(ret);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResourceForKey(String key) {
+		AnnotatedFile f = resources.get(key);
+		if (f!=null) {
+			return Optional.of(f);
+		} else if (removed.contains(key)) {
+			return Optional.empty();
+		} else {
+			return lower.getResourceForKey(key);
+		}
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(String path) {
+		return getResourceForKey(normalize(path));
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(Path path) {
+		if (DefaultFileSet.isDescendant(upper.getPath(), path)) {
+			return getResource(upper.getPath().relativize(path).toString());
+		}
+		return getResource(lower.getBaseFolder().getPath().relativize(path).toString());
+	}
+
+	@Override
+	public Stream<AnnotatedFile> streamExternal() {
+		return getResourcePaths().stream()
+				.map(v->getResourceForKey(v).get())
+				.filter(v->!DefaultFileSet.isDescendant(upper.getPath(), v.getPath()));
+	}
+
+	@Override
+	public void internalizeAllCopy() {
+		getResourcePaths().forEach(this::internalizeCopy);
+	}
+
+	@Override
+	public void internalizeBelow(Path base) {
+		getResourcePaths().forEach(k->{
+			getResourceForKey(k)
+				.filter(v->DefaultFileSet.isDescendant(base, v.getPath()))
+				.ifPresent(v->internalize(k));
+		});
+	}
+
+	@Override
+	public boolean internalize(String path) {
+		// The lower layer is read only
+		return internalizeCopy(path);
+	}
+
+	@Override
+	public synchronized boolean internalizeCopy(String path) {
+		String key = normalize(path);
+		if (resources.containsKey(key)) {
+			return true;
+		}
+		Optional<AnnotatedFile> original = getResourceForKey(key);
+		if (!original.isPresent()) {
+			return false;
+		}
+		Path target = upper.getPath().resolve(key);
+		if (!DefaultFileSet.isDescendant(upper.getPath(), target)) {
+			return false;
+		}
+		try {
+			Files.createDirectories(target.getParent());
+			Files.copy(original.get().getPath(), target, StandardCopyOption.REPLACE_EXISTING);
+			resources.put(key, DefaultAnnotatedFile.with(original.get()).file(target).build());
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not copy file: " + original.get().getPath(), e);
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,316 @@
+package org.daisy.streamline.api.media;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * <p>Provides an immutable, persistent map of properties. The map is implemented as a
+ * hash array mapped trie. Adding a property creates a new map that shares all but
+ * O(log n) of its structure with the original, which makes it cheap to derive
+ * file details from other file details.</p>
+ *
+ * <p>All mutating methods of the {@link Map} interface throw {@link UnsupportedOperationException}.
+ * Use {@link #plus(String, Object)} instead.</p>
+ *
+ * @author Joel Håkansson
+ */
+final class PropertyMap extends AbstractMap<String, Object> {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	private static final Object NOT_FOUND = new Object();
+	private static final PropertyMap EMPTY = new PropertyMap(BitmapNode.EMPTY, 0);
+	private final Node root;
+	private final int size;
+
+	private PropertyMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty map.
+	 * @return the empty map
+	 */
+	static PropertyMap empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Returns a map with the specified property added. If the map already
+	 * contains the key, the value is replaced. This map is not modified.
+	 * @param key the key
+	 * @param value the value
+	 * @return a map with the property
+	 */
+	PropertyMap plus(String key, Object value) {
+		boolean[] added = new boolean[1];
+		Node n = root.put(0, hash(key), key, value, added);
+		return n==root ? this : new PropertyMap(n, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Returns a map with the specified properties added. This map is not modified.
+	 * @param values the properties
+	 * @return a map with the properties
+	 */
+	PropertyMap plusAll(Map<String, Object> values) {
+		if (isEmpty() && values instanceof PropertyMap) {
+			return (PropertyMap)values;
+		}
+		PropertyMap ret = this;
+		for (Map.Entry<String, Object> e : values.entrySet()) {
+			ret = ret.plus(e.getKey(), e.getValue());
+		}
+		return ret;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return (key==null || key instanceof String) && root.find(0, hash(key), key)!=NOT_FOUND;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (key!=null && !(key instanceof String)) {
+			return null;
+		}
+		Object ret = root.find(0, hash(key), key);
+		return ret==NOT_FOUND ? null : ret;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static int hash(Object key) {
+		if (key==null) {
+			return 0;
+		}
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static final class Entry extends AbstractMap.SimpleImmutableEntry<String, Object> {
+		private static final long serialVersionUID = 6524087024011425838L;
+		private final int hash;
+
+		private Entry(int hash, String key, Object value) {
+			super(key, value);
+			this.hash = hash;
+		}
+	}
+
+	private interface Node {
+		Object find(int shift, int hash, Object key);
+		Node put(int shift, int hash, String key, Object value, boolean[] added);
+		Object[] array();
+	}
+
+	/**
+	 * A node where each set bit in the bitmap corresponds to either an
+	 * entry or a sub node in the array.
+	 */
+	private static final class BitmapNode implements Node {
+		private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+		private final int bitmap;
+		private final Object[] array;
+
+		private BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		@Override
+		public Object find(int shift, int hash, Object key) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit)==0) {
+				return NOT_FOUND;
+			}
+			Object o = array[Integer.bitCount(bitmap & (bit - 1))];
+			if (o instanceof Node) {
+				return ((Node)o).find(shift + BITS, hash, key);
+			}
+			Entry e = (Entry)o;
+			return Objects.equals(e.getKey(), key) ? e.getValue() : NOT_FOUND;
+		}
+
+		@Override
+		public Node put(int shift, int hash, String key, Object value, boolean[] added) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int idx = Integer.bitCount(bitmap & (bit - 1));
+			if ((bitmap & bit)==0) {
+				Object[] a = new Object[array.length + 1];
+				System.arraycopy(array, 0, a, 0, idx);
+				a[idx] = new Entry(hash, key, value);
+				System.arraycopy(array, idx, a, idx + 1, array.length - idx);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, a);
+			}
+			Object o = array[idx];
+			Object replacement;
+			if (o instanceof Node) {
+				Node n = ((Node)o).put(shift + BITS, hash, key, value, added);
+				if (n==o) {
+					return this;
+				}
+				replacement = n;
+			} else {
+				Entry e = (Entry)o;
+				if (Objects.equals(e.getKey(), key)) {
+					if (e.getValue()==value) {
+						return this;
+					}
+					replacement = new Entry(hash, key, value);
+				} else {
+					added[0] = true;
+					replacement = createNode(shift + BITS, e, new Entry(hash, key, value));
+				}
+			}
+			Object[] a = array.clone();
+			a[idx] = replacement;
+			return new BitmapNode(bitmap, a);
+		}
+
+		@Override
+		public Object[] array() {
+			return array;
+		}
+
+		private static Node createNode(int shift, Entry e1, Entry e2) {
+			if (e1.hash==e2.hash) {
+				return new CollisionNode(e1.hash, new Object[]{e1, e2});
+			}
+			// The hashes differ, so they will end up in different slots at some level
+			boolean[] added = new boolean[1];
+			return EMPTY
+					.put(shift, e1.hash, e1.getKey(), e1.getValue(), added)
+					.put(shift, e2.hash, e2.getKey(), e2.getValue(), added);
+		}
+	}
+
+	/**
+	 * A node for entries with identical hashes.
+	 */
+	private static final class CollisionNode implements Node {
+		private final int hash;
+		private final Object[] entries;
+
+		private CollisionNode(int hash, Object[] entries) {
+			this.hash = hash;
+			this.entries = entries;
+		}
+
+		@Override
+		public Object find(int shift, int hash, Object key) {
+			for (Object o : entries) {
+				Entry e = (Entry)o;
+				if (Objects.equals(e.getKey(), key)) {
+					return e.getValue();
+				}
+			}
+			return NOT_FOUND;
+		}
+
+		@Override
+		public Node put(int shift, int hash, String key, Object value, boolean[] added) {
+			if (hash!=this.hash) {
+				// Push this node down one level
+				int bit = 1 << ((this.hash >>> shift) & MASK);
+				return new BitmapNode(bit, new Object[]{this}).put(shift, hash, key, value, added);
+			}
+			for (int i=0; i<entries.length; i++) {
+				Entry e = (Entry)entries[i];
+				if (Objects.equals(e.getKey(), key)) {
+					if (e.getValue()==value) {
+						return this;
+					}
+					Object[] a = entries.clone();
+					a[i] = new Entry(hash, key, value);
+					return new CollisionNode(hash, a);
+				}
+			}
+			Object[] a = new Object[entries.length + 1];
+			System.arraycopy(entries, 0, a, 0, entries.length);
+			a[entries.length] = new Entry(hash, key, value);
+			added[0] = true;
+			return new CollisionNode(hash, a);
+		}
+
+		@Override
+		public Object[] array() {
+			return entries;
+		}
+	}
+
+	private static final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private final Deque<Object[]> arrays = new ArrayDeque<>();
+		private final Deque<Integer> positions = new ArrayDeque<>();
+		private Entry next;
+
+		private EntryIterator(Node root) {
+			arrays.push(root.array());
+			positions.push(0);
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (!arrays.isEmpty()) {
+				Object[] a = arrays.peek();
+				int i = positions.pop();
+				if (i>=a.length) {
+					arrays.pop();
+					continue;
+				}
+				positions.push(i + 1);
+				Object o = a[i];
+				if (o instanceof Node) {
+					arrays.push(((Node)o).array());
+					positions.push(0);
+				} else {
+					next = (Entry)o;
+					return;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next!=null;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (next==null) {
+				throw new NoSuchElementException();
+			}
+			Entry ret = next;
+			advance();
+			return ret;
+		}
+	}
+
+}
@@ -0,0 +1,91 @@
+package org.daisy.streamline.api.media;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Provides a change to a resource in a file set.
+ * @author Joel Håkansson
+ */
+public final class ResourceChange {
+	private final ChangeType type;
+	private final String path;
+	private final AnnotatedFile before;
+	private final AnnotatedFile after;
+
+	private ResourceChange(ChangeType type, String path, AnnotatedFile before, AnnotatedFile after) {
+		this.type = Objects.requireNonNull(type);
+		this.path = Objects.requireNonNull(path);
+		this.before = before;
+		this.after = after;
+	}
+
+	/**
+	 * Creates a new change for an added resource.
+	 * @param path the path to the resource within the file set
+	 * @param after the resource
+	 * @return a new change
+	 */
+	public static ResourceChange added(String path, AnnotatedFile after) {
+		return new ResourceChange(ChangeType.ADDED, path, null, Objects.requireNonNull(after));
+	}
+
+	/**
+	 * Creates a new change for a removed resource.
+	 * @param path the path to the resource within the file set
+	 * @param before the resource
+	 * @return a new change
+	 */
+	public static ResourceChange removed(String path, AnnotatedFile before) {
+		return new ResourceChange(ChangeType.REMOVED, path, Objects.requireNonNull(before), null);
+	}
+
+	/**
+	 * Creates a new change for a modified resource.
+	 * @param path the path to the resource within the file set
+	 * @param before the resource before the change
+	 * @param after the resource after the change
+	 * @return a new change
+	 */
+	public static ResourceChange modified(String path, AnnotatedFile before, AnnotatedFile after) {
+		return new ResourceChange(ChangeType.MODIFIED, path, Objects.requireNonNull(before), Objects.requireNonNull(after));
+	}
+
+	/**
+	 * Gets the type of change.
+	 * @return the type
+	 */
+	public ChangeType getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the path to the resource within the file set.
+	 * @return the path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the resource before the change. This is empty for added resources.
+	 * @return the resource before the change
+	 */
+	public Optional<AnnotatedFile> getBefore() {
+		return Optional.ofNullable(before);
+	}
+
+	/**
+	 * Gets the resource after the change. This is empty for removed resources.
+	 * @return the resource after the change
+	 */
+	public Optional<AnnotatedFile> getAfter() {
+		return Optional.ofNullable(after);
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceChange [type=" + type + ", path=" + path + "]";
+	}
+
+}
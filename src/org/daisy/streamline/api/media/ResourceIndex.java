@@ -0,0 +1,305 @@
+package org.daisy.streamline.api.media;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides an index of the resources in a file set. Resources are stored by key, where
+ * the key is a normalized path relative to the base folder, see {@link DefaultFileSet#normalizeRelativePath(Path, String)}.
+ * In addition, the keys are indexed in a tree of path segments. This makes it possible to
+ * normalize and find a path in a single pass over its characters, without creating
+ * any intermediary objects.</p>
+ *
+ * <p>The index is not thread safe for adding keys. However, replacing the value of an
+ * existing key is safe while other threads are reading.</p>
+ *
+ * @author Joel Håkansson
+ */
+final class ResourceIndex {
+	private static final String PARENT = "..";
+	private final Path base;
+	private final char separator;
+	private final Node root;
+	private final Map<String, Node> keys;
+
+	private static final class Node {
+		private final Node parent;
+		private final String segment;
+		private final int hash;
+		private Node[] children;
+		private int size;
+		private String key;
+		private volatile AnnotatedFile value;
+
+		private Node(Node parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+			this.hash = segment==null ? 0 : segment.hashCode();
+			this.children = null;
+			this.size = 0;
+			this.key = null;
+			this.value = null;
+		}
+
+		private boolean isParentSegment() {
+			return PARENT.equals(segment);
+		}
+
+		private Node getChild(CharSequence path, int start, int end, int h) {
+			if (children==null) {
+				return null;
+			}
+			int mask = children.length-1;
+			for (int i = spread(h) & mask; children[i]!=null; i = (i+1) & mask) {
+				Node n = children[i];
+				if (n.hash==h && regionEquals(n.segment, path, start, end)) {
+					return n;
+				}
+			}
+			return null;
+		}
+
+		private Node addChild(String s) {
+			Node ret = getChild(s, 0, s.length(), s.hashCode());
+			if (ret==null) {
+				ret = new Node(this, s);
+				if (children==null) {
+					children = new Node[4];
+				} else if ((size+1)*2>children.length) {
+					Node[] old = children;
+					children = new Node[old.length*2];
+					for (Node n : old) {
+						if (n!=null) {
+							insert(n);
+						}
+					}
+				}
+				insert(ret);
+				size++;
+			}
+			return ret;
+		}
+
+		private void insert(Node n) {
+			int mask = children.length-1;
+			int i = spread(n.hash) & mask;
+			while (children[i]!=null) {
+				i = (i+1) & mask;
+			}
+			children[i] = n;
+		}
+	}
+
+	/**
+	 * Creates a new empty index.
+	 * @param base the base folder of the resources
+	 */
+	ResourceIndex(Path base) {
+		this.base = base;
+		String sep = base.getFileSystem().getSeparator();
+		this.separator = sep.length()==1 ? sep.charAt(0) : '/';
+		this.root = new Node(null, null);
+		this.keys = new HashMap<>();
+	}
+
+	/**
+	 * Associates the specified resource with the specified key.
+	 * @param key a normalized path
+	 * @param value the resource
+	 */
+	void put(String key, AnnotatedFile value) {
+		Node n = keys.get(key);
+		if (n==null) {
+			n = root;
+			int start = 0;
+			while (start<=key.length()) {
+				int end = nextSeparator(key, start);
+				if (end>start) {
+					n = n.addChild(key.substring(start, end));
+				}
+				start = end + 1;
+			}
+			n.key = key;
+			keys.put(key, n);
+		}
+		n.value = value;
+	}
+
+	/**
+	 * Gets the resource with the specified key.
+	 * @param key the key
+	 * @return the resource, or null if the key isn't in the index
+	 */
+	AnnotatedFile get(String key) {
+		Node n = keys.get(key);
+		return n==null ? null : n.value;
+	}
+
+	/**
+	 * Returns true if the specified key is in the index.
+	 * @param key the key
+	 * @return true if the key is in the index, false otherwise
+	 */
+	boolean containsKey(String key) {
+		return keys.containsKey(key);
+	}
+
+	/**
+	 * Finds the resource at the specified path. The path is normalized
+	 * before it is compared to the keys.
+	 * @param path the path
+	 * @return the resource, or null if the path isn't in the index
+	 */
+	AnnotatedFile find(String path) {
+		Node n = findNode(path);
+		return n==null || n.key==null ? null : n.value;
+	}
+
+	private Node findNode(String path) {
+		if (isAbsolute(path)) {
+			// Absolute paths are relativized against the base, which is done by the path implementation
+			return keys.get(DefaultFileSet.normalizeRelativePath(base, path));
+		}
+		Node n = root;
+		// The number of segments below n that are not in the index
+		int missing = 0;
+		int start = 0;
+		while (start<=path.length()) {
+			int end = nextSeparator(path, start);
+			int len = end - start;
+			if (len==0 || (len==1 && path.charAt(start)=='.')) {
+				// Empty or current, skip
+			} else if (len==2 && path.charAt(start)=='.' && path.charAt(start+1)=='.') {
+				if (missing>0) {
+					missing--;
+				} else if (n==root || n.isParentSegment()) {
+					// A leading parent segment is kept as it is
+					n = n.getChild(PARENT, 0, 2, PARENT.hashCode());
+					if (n==null) {
+						return null;
+					}
+				} else {
+					n = n.parent;
+				}
+			} else if (missing>0) {
+				missing++;
+			} else {
+				Node c = n.getChild(path, start, end, hash(path, start, end));
+				if (c==null) {
+					missing = 1;
+				} else {
+					n = c;
+				}
+			}
+			start = end + 1;
+		}
+		return missing==0 ? n : null;
+	}
+
+	/**
+	 * Gets the keys of all resources below the specified folder.
+	 * @param folder the folder, this path is normalized before it is used
+	 * @return the keys
+	 */
+	Set<String> keysBelow(String folder) {
+		Node n = findNode(folder);
+		if (n==null || n.children==null) {
+			return Collections.emptySet();
+		}
+		Set<String> ret = new HashSet<>();
+		Deque<Node> stack = new ArrayDeque<>();
+		stack.push(n);
+		while (!stack.isEmpty()) {
+			Node c = stack.pop();
+			if (c!=n && c.key!=null) {
+				ret.add(c.key);
+			}
+			if (c.children!=null) {
+				for (Node x : c.children) {
+					if (x!=null) {
+						stack.push(x);
+					}
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Gets all keys.
+	 * @return an unmodifiable set of keys
+	 */
+	Set<String> keySet() {
+		return Collections.unmodifiableSet(keys.keySet());
+	}
+
+	/**
+	 * Streams all resources.
+	 * @return a stream of resources
+	 */
+	Stream<AnnotatedFile> values() {
+		return keys.values().stream().map(v->v.value);
+	}
+
+	/**
+	 * Performs the specified action for each key and resource. The action
+	 * may replace the value of the current key.
+	 * @param action the action
+	 */
+	void forEach(BiConsumer<String, AnnotatedFile> action) {
+		keys.forEach((k, v)->action.accept(k, v.value));
+	}
+
+	private int nextSeparator(String path, int start) {
+		for (int i=start; i<path.length(); i++) {
+			char c = path.charAt(i);
+			if (c=='/' || c==separator) {
+				return i;
+			}
+		}
+		return path.length();
+	}
+
+	private boolean isAbsolute(String path) {
+		if (path.isEmpty()) {
+			return false;
+		}
+		char c = path.charAt(0);
+		// Include drive letters on Windows
+		return c=='/' || c==separator || (separator=='\\' && path.length()>1 && path.charAt(1)==':');
+	}
+
+	private static int hash(CharSequence s, int start, int end) {
+		// Same as String.hashCode()
+		int h = 0;
+		for (int i=start; i<end; i++) {
+			h = 31 * h + s.charAt(i);
+		}
+		return h;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean regionEquals(String segment, CharSequence path, int start, int end) {
+		if (segment.length()!=end-start) {
+			return false;
+		}
+		for (int i=0; i<segment.length(); i++) {
+			if (segment.charAt(i)!=path.charAt(start+i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,372 @@
+package org.daisy.streamline.api.media;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>Provides an {@link InputStreamSupplier} for sources that can only be read once,
+ * such as pipes or uploads. The source is read as needed by the streams returned
+ * by {@link #newInputStream()}, and what has been read is kept in a spool so that
+ * it can be replayed by any number of streams, also concurrently.</p>
+ *
+ * <p>The first part of the source, up to the memory limit, is kept in memory
+ * using pooled direct buffers. Only if the source is larger than the memory limit,
+ * the remainder is spilled to a temporary file. Small sources therefore never touch
+ * the disk.</p>
+ *
+ * <p>The source is read by one stream at a time, without holding the lock used
+ * by the other streams. A stream reading data that has already been spooled is
+ * therefore never blocked by another stream waiting for the source.</p>
+ *
+ * <p>The supplier must be closed when it is no longer used. Closing it releases the
+ * memory, deletes the temporary file and closes the source. Streams that are open
+ * when the supplier is closed will fail on the next read.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class SpoolingInputStreamSupplier implements InputStreamSupplier, Closeable {
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final long DEFAULT_MEMORY_LIMIT = 4L << 20;
+	// Up to 16 MB of buffers are kept for reuse
+	private static final BufferPool POOL = new BufferPool(CHUNK_SIZE, 256);
+	private final ReadableByteChannel source;
+	private final String systemId;
+	private final long memoryLimit;
+	private final Path tempFolder;
+	private final List<ByteBuffer> chunks;
+	// Held while reading from the source, so that there is only one filler at a time
+	private final Object fillLock;
+	private FileChannel spill;
+	private Path spillFile;
+	// Only updated by the filler, after the data has been written to the spool
+	private volatile long length;
+	private volatile boolean eof;
+	private boolean filling;
+	private boolean closed;
+
+	/**
+	 * Provides a builder for spooling input stream suppliers.
+	 */
+	public static class Builder {
+		private final InputStream source;
+		private final String systemId;
+		private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+		private Path tempFolder = null;
+
+		/**
+		 * Creates a new builder.
+		 * @param source the source, this stream is read at most once
+		 * @param systemId the system id
+		 */
+		public Builder(InputStream source, String systemId) {
+			this.source = Objects.requireNonNull(source);
+			this.systemId = systemId;
+		}
+
+		/**
+		 * Sets the maximum number of bytes to keep in memory. The default is 4 MB.
+		 * @param value the memory limit
+		 * @return this builder
+		 * @throws IllegalArgumentException if the value is negative
+		 */
+		public Builder memoryLimit(long value) {
+			if (value<0) {
+				throw new IllegalArgumentException("Negative value: " + value);
+			}
+			this.memoryLimit = value;
+			return this;
+		}
+
+		/**
+		 * Sets the folder where the temporary file is created, if needed.
+		 * By default, the default temporary-file directory is used.
+		 * @param value the folder
+		 * @return this builder
+		 */
+		public Builder tempFolder(Path value) {
+			this.tempFolder = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new supplier.
+		 * @return a new supplier
+		 */
+		public SpoolingInputStreamSupplier build() {
+			return new SpoolingInputStreamSupplier(this);
+		}
+	}
+
+	private SpoolingInputStreamSupplier(Builder builder) {
+		this.source = Channels.newChannel(builder.source);
+		this.systemId = builder.systemId;
+		// Memory is used in whole chunks
+		this.memoryLimit = (builder.memoryLimit / CHUNK_SIZE) * CHUNK_SIZE;
+		this.tempFolder = builder.tempFolder;
+		this.chunks = new ArrayList<>();
+		this.fillLock = new Object();
+		this.spill = null;
+		this.spillFile = null;
+		this.length = 0;
+		this.eof = false;
+		this.filling = false;
+		this.closed = false;
+	}
+
+	/**
+	 * Creates a new supplier with the default settings.
+	 * @param source the source, this stream is read at most once
+	 * @param systemId the system id
+	 * @return a new supplier
+	 */
+	public static SpoolingInputStreamSupplier with(InputStream source, String systemId) {
+		return new Builder(source, systemId).build();
+	}
+
+	@Override
+	public InputStream newInputStream() throws IOException {
+		synchronized (this) {
+			ensureOpen();
+		}
+		return new SpoolInputStream();
+	}
+
+	@Override
+	public String getSystemId() {
+		return systemId;
+	}
+
+	/**
+	 * Gets the number of bytes read from the source so far.
+	 * @return the number of bytes
+	 */
+	public long getSpooledLength() {
+		return length;
+	}
+
+	/**
+	 * Returns true if the source has been larger than the memory limit,
+	 * in other words if a temporary file has been created.
+	 * @return true if data has been spilled to disk, false otherwise
+	 */
+	public synchronized boolean isSpilled() {
+		return spillFile!=null;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Closed");
+		}
+	}
+
+	/**
+	 * Reads from the source until the spool contains the specified position, or
+	 * until the end of the source is reached.
+	 * @param position the position
+	 * @return true if the position is available, false if the position is beyond the end of the source
+	 */
+	private boolean fill(long position) throws IOException {
+		if (position<length) {
+			return true;
+		}
+		synchronized (fillLock) {
+			while (length<=position && !eof) {
+				fillNext();
+			}
+			return position<length;
+		}
+	}
+
+	/**
+	 * Reads the next part of the source into the spool. Must only be called
+	 * while holding the fill lock. The source is read without holding the
+	 * monitor of this object.
+	 */
+	private void fillNext() throws IOException {
+		ByteBuffer dst;
+		boolean memory;
+		FileChannel fc;
+		synchronized (this) {
+			ensureOpen();
+			filling = true;
+			memory = length<memoryLimit;
+			if (memory) {
+				if (length % CHUNK_SIZE == 0) {
+					chunks.add(POOL.acquire());
+				}
+				// Write through a duplicate, so that readers never see the position change
+				dst = chunks.get(chunks.size()-1).duplicate();
+				dst.position((int)(length % CHUNK_SIZE));
+			} else {
+				if (spill==null) {
+					spillFile = tempFolder!=null ? Files.createTempFile(tempFolder, "spool", ".tmp") : Files.createTempFile("spool", ".tmp");
+					spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				}
+				dst = POOL.acquire();
+			}
+			fc = spill;
+		}
+		try {
+			int n = source.read(dst);
+			if (n<0) {
+				eof = true;
+				return;
+			}
+			if (!memory) {
+				dst.flip();
+				long pos = length - memoryLimit;
+				while (dst.hasRemaining()) {
+					pos += fc.write(dst, pos);
+				}
+			}
+			// Publish the data
+			length += n;
+		} finally {
+			if (!memory) {
+				POOL.release(dst);
+			}
+			synchronized (this) {
+				filling = false;
+				if (closed) {
+					// Closed while reading, the buffers were left for the filler to release
+					releaseChunks();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads from the spool at the specified position.
+	 * @return the number of bytes read, or -1 if the position is at the end of the source
+	 */
+	private int read(long position, byte[] b, int off, int len) throws IOException {
+		if (!fill(position)) {
+			return -1;
+		}
+		// Only data up to this point is guaranteed to be in the spool
+		long available = length;
+		if (position<memoryLimit) {
+			synchronized (this) {
+				ensureOpen();
+				ByteBuffer chunk = chunks.get((int)(position / CHUNK_SIZE)).duplicate();
+				int start = (int)(position % CHUNK_SIZE);
+				int n = (int)Math.min(len, Math.min(CHUNK_SIZE - start, available - position));
+				chunk.position(start);
+				chunk.get(b, off, n);
+				return n;
+			}
+		} else {
+			FileChannel fc;
+			synchronized (this) {
+				ensureOpen();
+				fc = spill;
+			}
+			int n = (int)Math.min(len, available - position);
+			return fc.read(ByteBuffer.wrap(b, off, n), position - memoryLimit);
+		}
+	}
+
+	private void releaseChunks() {
+		chunks.forEach(POOL::release);
+		chunks.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			// A buffer that is being filled must not be returned to the pool
+			if (!filling) {
+				releaseChunks();
+			}
+		}
+		FileChannel fc;
+		synchronized (this) {
+			fc = spill;
+		}
+		try {
+			source.close();
+		} finally {
+			if (fc!=null) {
+				// The file is deleted on close
+				fc.close();
+			}
+		}
+	}
+
+	private class SpoolInputStream extends InputStream {
+		private long position = 0;
+		private long mark = 0;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1)<0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			Objects.requireNonNull(b);
+			if (off<0 || len<0 || len>b.length-off) {
+				throw new IndexOutOfBoundsException();
+			} else if (len==0) {
+				return 0;
+			}
+			int n = SpoolingInputStreamSupplier.this.read(position, b, off, len);
+			if (n>0) {
+				position += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			if (n<=0) {
+				return 0;
+			}
+			// Make sure the skipped data is spooled, so that it can be read by other streams
+			long target = position + n;
+			if (!fill(target-1)) {
+				target = length;
+			}
+			long ret = target - position;
+			position = target;
+			return ret;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int)Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+		}
+
+		@Override
+		public boolean markSupported() {
+			return true;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit) {
+			mark = position;
+		}
+
+		@Override
+		public synchronized void reset() throws IOException {
+			position = mark;
+		}
+	}
+
+}
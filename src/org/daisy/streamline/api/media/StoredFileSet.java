@@ -0,0 +1,134 @@
+package org.daisy.streamline.api.media;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a file set whose resources are located in a {@link ContentStore}.
+ * The file set holds a reference to each of its resources in the store until it
+ * is closed.</p>
+ * 
+ * <p>Since the resources are located in the store, they are external to the base folder,
+ * see {@link #streamExternal()}. Copying the file set with {@link #copy(BaseFolder)}
+ * doesn't copy any data.</p>
+ * 
+ * @author Joel Håkansson
+ */
+public final class StoredFileSet implements FileSet, Closeable {
+	private final ContentStore store;
+	private final Map<String, String> keys;
+	private final DefaultFileSet fileSet;
+	private final AtomicBoolean closed;
+
+	StoredFileSet(ContentStore store, FileSet source, BaseFolder target, Map<String, String> keys) {
+		this.store = store;
+		this.keys = Collections.unmodifiableMap(new HashMap<>(keys));
+		DefaultFileSet.Builder builder = DefaultFileSet.with(target, inStore(source.getManifest(), source.getManifestPath()), source.getManifestPath());
+		builder.formatIdentifier(source.getFormatIdentifier().orElse(null));
+		for (String path : source.getResourcePaths()) {
+			if (!path.equals(source.getManifestPath())) {
+				source.getResourceForKey(path).ifPresent(f->builder.add(inStore(f, path), path));
+			}
+		}
+		this.fileSet = builder.build();
+		this.closed = new AtomicBoolean(false);
+	}
+	
+	private AnnotatedFile inStore(AnnotatedFile f, String path) {
+		return DefaultAnnotatedFile.with(f).file(store.getPath(keys.get(path))).build();
+	}
+
+	/**
+	 * Creates a new file set at the specified location with the same resources as this
+	 * file set. No data is copied, the new file set refers to the same files in the
+	 * store. The new file set must also be closed.
+	 * @param target the base folder of the new file set
+	 * @return a new file set
+	 * @throws IllegalStateException if this file set is closed
+	 */
+	public StoredFileSet copy(BaseFolder target) {
+		if (closed.get()) {
+			throw new IllegalStateException("Closed");
+		}
+		keys.values().forEach(store::retain);
+		return new StoredFileSet(store, this, target, keys);
+	}
+	
+	/**
+	 * Gets the store key of the resource with the specified key.
+	 * @param key the resource key
+	 * @return the store key
+	 */
+	public Optional<String> getStoreKey(String key) {
+		return Optional.ofNullable(keys.get(key));
+	}
+
+	@Override
+	public BaseFolder getBaseFolder() {
+		return fileSet.getBaseFolder();
+	}
+
+	@Override
+	public AnnotatedFile getManifest() {
+		return fileSet.getManifest();
+	}
+
+	@Override
+	public String getManifestPath() {
+		return fileSet.getManifestPath();
+	}
+
+	@Override
+	public boolean isManifest(String path) {
+		return fileSet.isManifest(path);
+	}
+
+	@Override
+	public Optional<FormatIdentifier> getFormatIdentifier() {
+		return fileSet.getFormatIdentifier();
+	}
+
+	@Override
+	public Set<String> getResourcePaths() {
+		return fileSet.getResourcePaths();
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResourceForKey(String key) {
+		return fileSet.getResourceForKey(key);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(String path) {
+		return fileSet.getResource(path);
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(Path path) {
+		return fileSet.getResource(path);
+	}
+
+	@Override
+	public Stream<AnnotatedFile> streamExternal() {
+		return fileSet.streamExternal();
+	}
+
+	/**
+	 * Releases the references to the resources of this file set. Closing an already closed
+	 * file set has no effect.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			keys.values().forEach(store::release);
+		}
+	}
+
+}
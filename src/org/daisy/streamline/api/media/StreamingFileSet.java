@@ -0,0 +1,262 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Provides a file set where the resources are enumerated lazily, either
+ * from the base folder or from an index file. No resources are held in memory,
+ * instead {@link AnnotatedFile}s are created when they are accessed. This makes
+ * it suitable for file sets with a very large number of resources.</p>
+ *
+ * <p>Use {@link #streamResourcePaths()} or {@link #streamResources()} to
+ * process the resources. These streams can be split for parallel processing.
+ * {@link #getResourcePaths()} is supported, but it materializes all paths
+ * in memory and should be avoided for large file sets.</p>
+ *
+ * <p>The index file, if used, is a UTF-8 encoded text file with one resource
+ * path per line. Paths are relative to the base folder. Empty lines are ignored.
+ * The first time a resource is looked up by key, the paths in the index are read
+ * into memory, so that subsequent lookups don't have to scan the index again.
+ * Changes to the index file after that aren't visible to lookups.</p>
+ *
+ * @author Joel Håkansson
+ */
+public final class StreamingFileSet implements FileSet {
+	private final BaseFolder baseFolder;
+	private final AnnotatedFile manifest;
+	private final String manifestPath;
+	private final Path index;
+	private final Function<Path, AnnotatedFile> annotator;
+	private final FormatIdentifier formatIdentifier;
+	private volatile Set<String> indexKeys = null;
+
+	/**
+	 * Provides a builder for streaming file sets.
+	 */
+	public static class Builder {
+		private final BaseFolder baseFolder;
+		private final AnnotatedFile manifest;
+		private Path index = null;
+		private Function<Path, AnnotatedFile> annotator = p->DefaultAnnotatedFile.with(p).extension(p).build();
+		private FormatIdentifier formatIdentifier = null;
+
+		/**
+		 * Creates a new builder with the specified base folder and manifest.
+		 * @param baseFolder the base folder
+		 * @param manifest the manifest, this file must be a descendant of the base folder
+		 */
+		public Builder(BaseFolder baseFolder, AnnotatedFile manifest) {
+			this.baseFolder = Objects.requireNonNull(baseFolder);
+			this.manifest = Objects.requireNonNull(manifest);
+			DefaultFileSet.requireDescendant(baseFolder.getPath(), manifest.getPath());
+		}
+
+		/**
+		 * Sets the index file to enumerate the resources from. If no index file
+		 * is set, the resources are enumerated from the base folder.
+		 * @param value the index file
+		 * @return this builder
+		 */
+		public Builder index(Path value) {
+			this.index = value;
+			return this;
+		}
+
+		/**
+		 * Sets the function used to create a resource when it is accessed. By default,
+		 * resources are annotated with their file extension only.
+		 * @param value the function
+		 * @return this builder
+		 */
+		public Builder annotator(Function<Path, AnnotatedFile> value) {
+			this.annotator = Objects.requireNonNull(value);
+			return this;
+		}
+
+		/**
+		 * Sets the format identifier for the file set.
+		 * @param value the format identifier
+		 * @return this builder
+		 */
+		public Builder formatIdentifier(FormatIdentifier value) {
+			this.formatIdentifier = value;
+			return this;
+		}
+
+		/**
+		 * Builds a new streaming file set.
+		 * @return a new file set
+		 */
+		public StreamingFileSet build() {
+			return new StreamingFileSet(this);
+		}
+	}
+
+	private StreamingFileSet(Builder builder) {
+		this.baseFolder = builder.baseFolder;
+		this.manifest = builder.manifest;
+		this.manifestPath = baseFolder.getPath().relativize(manifest.getPath().normalize()).toString();
+		this.index = builder.index;
+		this.annotator = builder.annotator;
+		this.formatIdentifier = builder.formatIdentifier;
+	}
+
+	/**
+	 * Creates a new builder with the specified base folder and manifest.
+	 * @param baseFolder the base folder
+	 * @param manifest the manifest, this file must be a descendant of the base folder
+	 * @return a new builder
+	 */
+	public static Builder with(BaseFolder baseFolder, AnnotatedFile manifest) {
+		return new Builder(baseFolder, manifest);
+	}
+
+	/**
+	 * Streams the paths of the resources in this file set, relative to the
+	 * base folder. The paths are enumerated as the stream is consumed.
+	 * The stream must be closed after use, preferably using try-with-resources.
+	 * @return a stream of resource paths
+	 * @throws UncheckedIOException if the enumeration cannot be started
+	 */
+	public Stream<String> streamResourcePaths() {
+		if (index!=null) {
+			try {
+				return Files.lines(index, StandardCharsets.UTF_8)
+						.filter(v->!v.trim().isEmpty())
+						.map(v->DefaultFileSet.normalizeRelativePath(baseFolder.getPath(), v.trim()));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		} else {
+			Path base = baseFolder.getPath();
+			return DirectorySpliterator.stream(base, false).map(v->base.relativize(v).toString());
+		}
+	}
+
+	/**
+	 * Streams the resources in this file set. Each resource is created as it is
+	 * reached by the stream. The stream must be closed after use, preferably
+	 * using try-with-resources.
+	 * @return a stream of resources
+	 * @throws UncheckedIOException if the enumeration cannot be started
+	 */
+	public Stream<AnnotatedFile> streamResources() {
+		return streamResourcePaths().map(this::toResource);
+	}
+
+	private AnnotatedFile toResource(String key) {
+		return manifestPath.equals(key) ? manifest : annotator.apply(baseFolder.getPath().resolve(key));
+	}
+
+	@Override
+	public BaseFolder getBaseFolder() {
+		return baseFolder;
+	}
+
+	@Override
+	public AnnotatedFile getManifest() {
+		return manifest;
+	}
+
+	@Override
+	public String getManifestPath() {
+		return manifestPath;
+	}
+
+	@Override
+	public boolean isManifest(String path) {
+		return manifestPath.equals(DefaultFileSet.normalizeRelativePath(baseFolder.getPath(), path));
+	}
+
+	@Override
+	public Optional<FormatIdentifier> getFormatIdentifier() {
+		return Optional.ofNullable(formatIdentifier);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>Note that this method enumerates and holds all resource paths in memory.
+	 * Use {@link #streamResourcePaths()} when possible.</p>
+	 */
+	@Override
+	public Set<String> getResourcePaths() {
+		try (Stream<String> s = streamResourcePaths()) {
+			return s.collect(Collectors.toSet());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>If the file set is backed by an index file, the paths in the index are
+	 * read into memory on the first call.</p>
+	 */
+	@Override
+	public Optional<AnnotatedFile> getResourceForKey(String key) {
+		if (manifestPath.equals(key)) {
+			return Optional.of(manifest);
+		} else if (index!=null) {
+			return indexKeys().contains(key) ? Optional.of(toResource(key)) : Optional.empty();
+		} else {
+			Path p = baseFolder.getPath().resolve(key);
+			if (DefaultFileSet.isDescendant(baseFolder.getPath(), p) && Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) {
+				return Optional.of(annotator.apply(p));
+			} else {
+				return Optional.empty();
+			}
+		}
+	}
+
+	private Set<String> indexKeys() {
+		Set<String> ret = indexKeys;
+		if (ret==null) {
+			synchronized (this) {
+				ret = indexKeys;
+				if (ret==null) {
+					ret = Collections.unmodifiableSet(getResourcePaths());
+					indexKeys = ret;
+				}
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(String path) {
+		return getResourceForKey(DefaultFileSet.normalizeRelativePath(baseFolder.getPath(), path));
+	}
+
+	@Override
+	public Optional<AnnotatedFile> getResource(Path path) {
+		return getResource(baseFolder.getPath().relativize(path).toString());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>If the file set is backed by an index file, the index is read before
+	 * this method returns, so that the returned stream doesn't hold the file open.</p>
+	 */
+	@Override
+	public Stream<AnnotatedFile> streamExternal() {
+		if (index==null) {
+			// All resources are enumerated from the base folder
+			return Stream.empty();
+		}
+		try (Stream<AnnotatedFile> s = streamResources()) {
+			return s.filter(v->!DefaultFileSet.isDescendant(baseFolder.getPath(), v.getPath()))
+					.collect(Collectors.toList()).stream();
+		}
+	}
+
+}
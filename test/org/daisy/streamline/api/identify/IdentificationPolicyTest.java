@@ -0,0 +1,103 @@
+package org.daisy.streamline.api.identify;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.daisy.streamline.api.identity.IdentificationFailedException;
+import org.daisy.streamline.api.identity.IdentificationPolicy;
+import org.daisy.streamline.api.identity.IdentificationResult;
+import org.daisy.streamline.api.identity.Identifier;
+import org.daisy.streamline.api.identity.IdentifierFactory;
+import org.daisy.streamline.api.identity.IdentityProvider;
+import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.AnnotatedInputStream;
+import org.daisy.streamline.api.media.DefaultAnnotatedFile;
+import org.daisy.streamline.api.media.FileDetails;
+import org.daisy.streamline.api.media.InputStreamSupplier;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class IdentificationPolicyTest {
+	private final List<String> calls = new ArrayList<>();
+	
+	private IdentifierFactory factory(String name, Double confidence) {
+		return new IdentifierFactory() {
+			@Override
+			public Identifier newIdentifier() {
+				return new Identifier() {
+					@Override
+					public AnnotatedFile identify(AnnotatedFile f) throws IdentificationFailedException {
+						return identifyWithConfidence(f).getResult();
+					}
+
+					@Override
+					public IdentificationResult<AnnotatedFile> identifyWithConfidence(AnnotatedFile f) throws IdentificationFailedException {
+						calls.add(name);
+						AnnotatedFile ret = DefaultAnnotatedFile.with(f).formatName(name).build();
+						return confidence==null ? IdentificationResult.with(ret) : IdentificationResult.with(ret, confidence);
+					}
+
+					@Override
+					public AnnotatedInputStream identify(InputStreamSupplier source) throws IdentificationFailedException {
+						throw new IdentificationFailedException();
+					}
+				};
+			}
+
+			@Override
+			public boolean accepts(FileDetails type) {
+				return true;
+			}
+		};
+	}
+	
+	private AnnotatedFile identify(IdentificationPolicy policy) {
+		IdentityProvider p = new IdentityProvider(policy);
+		p.addFactory(factory("a", null));
+		p.addFactory(factory("b", 0.5));
+		p.addFactory(factory("c", 0.9));
+		p.addFactory(factory("d", null));
+		return p.identify(new File("test/resource-files/unknown.unk"));
+	}
+
+	@Test
+	public void testDefault() {
+		AnnotatedFile f = identify(new IdentificationPolicy.Builder().build());
+		assertEquals("d", f.getFormatName());
+		assertEquals("[a, b, c, d]", calls.toString());
+	}
+	
+	@Test
+	public void testThreshold() {
+		AnnotatedFile f = identify(new IdentificationPolicy.Builder().stopAtConfidence(0.8).build());
+		assertEquals("c", f.getFormatName());
+		assertEquals("[a, b, c]", calls.toString());
+	}
+	
+	@Test
+	public void testCandidates() {
+		AnnotatedFile f = identify(new IdentificationPolicy.Builder().stopAtConfidence(0.8).candidates(3).build());
+		assertEquals("c", f.getFormatName());
+		assertEquals("[a, b, c]", calls.toString());
+	}
+	
+	@Test
+	public void testCandidatesBest() {
+		AnnotatedFile f = identify(new IdentificationPolicy.Builder().candidates(2).build());
+		// round 1: a, b -> b, round 2: c, d -> c
+		assertEquals("c", f.getFormatName());
+		assertEquals("[a, b, c, d]", calls.toString());
+	}
+	
+	@Test
+	public void testTimeBudget() {
+		AnnotatedFile f = identify(new IdentificationPolicy.Builder().timeBudget(Duration.ZERO).build());
+		assertEquals(null, f.getFormatName());
+		assertEquals(0, calls.size());
+	}
+
+}
@@ -3,10 +3,29 @@ package org.daisy.streamline.api.identify;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import org.daisy.streamline.api.identity.IdentificationFailedException;
+import org.daisy.streamline.api.identity.Identifier;
+import org.daisy.streamline.api.identity.IdentifierFactory;
+import org.daisy.streamline.api.identity.IdentifierReuse;
 import org.daisy.streamline.api.identity.IdentityProvider;
 import org.daisy.streamline.api.identity.IdentityProviderService;
 import org.daisy.streamline.api.media.AnnotatedFile;
+import org.daisy.streamline.api.media.AnnotatedInputStream;
+import org.daisy.streamline.api.media.ArchiveFileSet;
+import org.daisy.streamline.api.media.DefaultAnnotatedInputStream;
+import org.daisy.streamline.api.media.DefaultFileDetails;
+import org.daisy.streamline.api.media.FileDetails;
+import org.daisy.streamline.api.media.InputStreamSupplier;
 import org.junit.Ignore;
 import org.junit.Test;
 @SuppressWarnings("javadoc")
@@ -41,5 +60,102 @@ public class IdentityProviderTest {
 		AnnotatedFile f = id.identify(new File("test/resource-files/unknown.unk"));
 		assertEquals("application/test", f.getMediaType());
 	}
+	
+	@Test
+	public void testIdentifyEntries() throws IOException {
+		Path zip = Paths.get("build", "test", "entries.zip");
+		Files.createDirectories(zip.getParent());
+		try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zip))) {
+			zos.putNextEntry(new ZipEntry("a/manifest.xml"));
+			zos.write("<?xml version=\"1.0\"?><root/>".getBytes(StandardCharsets.UTF_8));
+			zos.putNextEntry(new ZipEntry("a/b/resource.txt"));
+			zos.write("text".getBytes(StandardCharsets.UTF_8));
+			zos.closeEntry();
+		}
+		IdentityProvider id = new IdentityProvider();
+		id.addFactory(new IdentifierFactory() {
+			@Override
+			public Identifier newIdentifier() {
+				return new Identifier() {
+					@Override
+					public AnnotatedFile identify(AnnotatedFile f) throws IdentificationFailedException {
+						throw new IdentificationFailedException();
+					}
+
+					@Override
+					public AnnotatedInputStream identify(InputStreamSupplier source) throws IdentificationFailedException {
+						try (InputStream is = source.newInputStream()) {
+							byte[] b = new byte[5];
+							int len = is.read(b);
+							if (len==5 && "<?xml".equals(new String(b, StandardCharsets.US_ASCII))) {
+								return new DefaultAnnotatedInputStream.Builder(source)
+										.details(new DefaultFileDetails.Builder().mediaType("application/xml").build())
+										.build();
+							}
+						} catch (IOException e) {
+							throw new IdentificationFailedException(e);
+						}
+						throw new IdentificationFailedException();
+					}
+				};
+			}
+
+			@Override
+			public boolean accepts(FileDetails type) {
+				return type.getMediaType()==null;
+			}
+		});
+		try (ArchiveFileSet fs = id.identifyEntries(zip, "a/manifest.xml")) {
+			assertEquals(2, fs.getResourcePaths().size());
+			assertEquals("application/xml", fs.getManifest().getMediaType());
+			assertEquals("text", new String(Files.readAllBytes(fs.getResource("a/b/resource.txt").get().getPath()), StandardCharsets.UTF_8));
+			assertEquals(null, fs.getResource("a/c/../b/resource.txt").get().getMediaType());
+		} finally {
+			Files.delete(zip);
+		}
+	}
+	
+	private static IdentifierFactory countingFactory(IdentifierReuse reuse, AtomicInteger count) {
+		return new IdentifierFactory() {
+			@Override
+			public Identifier newIdentifier() {
+				count.incrementAndGet();
+				return new TestFactory().newIdentifier();
+			}
+
+			@Override
+			public boolean accepts(FileDetails type) {
+				return true;
+			}
+
+			@Override
+			public IdentifierReuse getReuse() {
+				return reuse;
+			}
+		};
+	}
+	
+	private static int countInstances(IdentifierReuse reuse) throws InterruptedException {
+		AtomicInteger count = new AtomicInteger();
+		IdentityProvider id = new IdentityProvider();
+		id.addFactory(countingFactory(reuse, count));
+		Runnable r = ()->{
+			for (int i=0; i<5; i++) {
+				id.identify(new File("test/resource-files/unknown.unk"));
+			}
+		};
+		r.run();
+		Thread t = new Thread(r);
+		t.start();
+		t.join();
+		return count.get();
+	}
+	
+	@Test
+	public void testReuse() throws InterruptedException {
+		assertEquals(10, countInstances(IdentifierReuse.NONE));
+		assertEquals(2, countInstances(IdentifierReuse.PER_THREAD));
+		assertEquals(1, countInstances(IdentifierReuse.SHARED));
+	}
 
 }
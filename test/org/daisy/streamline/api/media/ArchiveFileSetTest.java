@@ -0,0 +1,107 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ArchiveFileSetTest {
+
+	private static Path createEpub(Path p) throws IOException {
+		Files.createDirectories(p.getParent());
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(p))) {
+			write(out, "META-INF/container.xml", "<container xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\"><rootfiles>"
+					+ "<rootfile full-path=\"EPUB/package.opf\" media-type=\"application/oebps-package+xml\"/></rootfiles></container>");
+			write(out, "EPUB/package.opf", "<package/>");
+			write(out, "EPUB/content.xhtml", "<html/>");
+			write(out, "mimetype", "application/epub+zip");
+		}
+		return p;
+	}
+
+	private static void write(ZipOutputStream out, String name, String data) throws IOException {
+		out.putNextEntry(new ZipEntry(name));
+		out.write(data.getBytes(StandardCharsets.UTF_8));
+		out.closeEntry();
+	}
+
+	@Test
+	public void testProviderAndPublish() throws IOException, FileSetException {
+		Path epub = createEpub(Paths.get("build", "test", "archive", "input.epub"));
+		Path output = epub.resolveSibling("output.epub");
+		ArchiveFileSetProvider provider = ArchiveFileSetProvider.newInstance();
+		AnnotatedFile in = DefaultAnnotatedFile.with(epub).extension(epub).build();
+		assertTrue(provider.accepts(in));
+		Path overlay;
+		try (ArchiveFileSet fs = (ArchiveFileSet)provider.create(in, Collections.emptyMap())) {
+			assertEquals("EPUB/package.opf", fs.getManifestPath());
+			Path content = fs.getWritablePath("EPUB/content.xhtml");
+			overlay = content;
+			assertTrue(fs.isModified("EPUB/./content.xhtml"));
+			Files.write(content, "<html>modified</html>".getBytes(StandardCharsets.UTF_8));
+			Files.write(fs.getWritablePath("EPUB/added.css"), "p {}".getBytes(StandardCharsets.UTF_8));
+			fs.getWritablePath("EPUB/never-written.css");
+			assertEquals(content, fs.getResource("EPUB/content.xhtml").get().getPath());
+			assertEquals(content, fs.getResource(content).get().getPath());
+			// The resource that was never written isn't listed
+			assertEquals(5, fs.getResourcePaths().size());
+			assertFalse(fs.getResourcePaths().contains("EPUB/never-written.css"));
+			fs.publish(output);
+			try {
+				fs.publish(epub);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+		assertFalse(Files.exists(overlay));
+		try (ZipFile zip = new ZipFile(output.toFile())) {
+			ZipEntry first = zip.entries().nextElement();
+			assertEquals("mimetype", first.getName());
+			assertEquals(ZipEntry.STORED, first.getMethod());
+			assertEquals(5, zip.size());
+		}
+		try (ArchiveFileSet fs = ArchiveFileSet.open(output, "EPUB/package.opf")) {
+			assertEquals("<html>modified</html>", new String(Files.readAllBytes(fs.getResource("EPUB/content.xhtml").get().getPath()), StandardCharsets.UTF_8));
+			assertTrue(fs.getResource("EPUB/added.css").isPresent());
+			assertFalse(fs.getResource("EPUB/never-written.css").isPresent());
+		}
+		Files.delete(epub);
+		Files.delete(output);
+	}
+
+	@Test
+	public void testUnwrittenMimetype() throws IOException {
+		Path zip = Paths.get("build", "test", "archive", "input.zip");
+		Files.createDirectories(zip.getParent());
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+			write(out, "index.html", "<html/>");
+		}
+		Path output = zip.resolveSibling("output.zip");
+		try (ArchiveFileSet fs = ArchiveFileSet.open(zip, "index.html")) {
+			fs.getWritablePath("mimetype");
+			assertFalse(fs.getResource("mimetype").isPresent());
+			fs.publish(output);
+		}
+		try (ZipFile z = new ZipFile(output.toFile())) {
+			assertEquals(1, z.size());
+			assertEquals("index.html", z.entries().nextElement().getName());
+		}
+		Files.delete(zip);
+		Files.delete(output);
+	}
+
+}
@@ -0,0 +1,109 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.daisy.streamline.api.media.TestFiles.fileSetBuilder;
+import static org.daisy.streamline.api.media.TestFiles.resourceFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ContentStoreTest {
+
+	@Test
+	public void testStore() throws URISyntaxException, IOException {
+		Path root = Paths.get("build", "test", "content-store");
+		deleteRecursively(root);
+		ContentStore store = ContentStore.open(root);
+		DefaultFileSet source = fileSetBuilder(
+				resourceFile("a/manifest.mf").mediaType("text/plain").build(),
+				resourceFile("b/resource1.txt").build(),
+				resourceFile("b/c/resource2.txt").build()
+			).build();
+		StoredFileSet fs1 = store.store(source, BaseFolder.with("build", "test", "stored1"));
+		StoredFileSet fs2 = store.store(source, BaseFolder.with("build", "test", "stored2"));
+		String key = fs1.getStoreKey("b/resource1.txt").get();
+		assertTrue(key.endsWith(".txt"));
+		assertEquals(key, fs2.getStoreKey("b/resource1.txt").get());
+		assertEquals(2, store.getReferenceCount(key));
+		assertArrayEquals(
+				Files.readAllBytes(source.getResource("b/resource1.txt").get().getPath()),
+				Files.readAllBytes(fs1.getResource("b/resource1.txt").get().getPath()));
+		assertEquals("text/plain", fs1.getManifest().getMediaType());
+		assertEquals(3, fs1.streamExternal().count());
+
+		StoredFileSet fs3 = fs2.copy(BaseFolder.with("build", "test", "stored3"));
+		assertEquals(3, store.getReferenceCount(key));
+		fs1.close();
+		fs2.close();
+		fs2.close();
+		assertEquals(1, store.getReferenceCount(key));
+		assertEquals(0, store.gc());
+		fs3.close();
+		assertEquals(0, store.getReferenceCount(key));
+		assertEquals(3, store.gc());
+		assertTrue(!Files.exists(store.getPath(key)));
+	}
+
+	@Test
+	public void testSharedStore() throws URISyntaxException, IOException {
+		Path root = Paths.get("build", "test", "content-store-shared");
+		deleteRecursively(root);
+		ContentStore store1 = ContentStore.open(root);
+		String key = store1.put(resourceFile("b/resource1.txt").build().getPath());
+		// Another instance, for example after a restart, sees the reference
+		ContentStore store2 = ContentStore.open(root);
+		assertEquals(1, store2.getReferenceCount(key));
+		assertEquals(0, store2.gc());
+		assertTrue(Files.exists(store2.getPath(key)));
+		// Files without a reference record are left alone
+		Path unknown = root.resolve("ff").resolve("unknown.txt");
+		Files.createDirectories(unknown.getParent());
+		Files.write(unknown, new byte[]{1});
+		store2.release(key);
+		assertEquals(0, store1.getReferenceCount(key));
+		assertEquals(1, store1.gc());
+		assertTrue(Files.exists(unknown));
+		assertTrue(!Files.exists(store1.getPath(key)));
+		deleteRecursively(root);
+	}
+
+	@Test
+	public void testExtensionCase() throws IOException {
+		Path root = Paths.get("build", "test", "content-store-case");
+		deleteRecursively(root);
+		Path files = Paths.get("build", "test", "content-store-case-files");
+		deleteRecursively(files);
+		Files.createDirectories(files);
+		Path upper = Files.write(files.resolve("a.TXT"), new byte[]{1, 2, 3});
+		Path lower = Files.write(files.resolve("a.txt"), new byte[]{1, 2, 3});
+		ContentStore store = ContentStore.open(root);
+		String key = store.put(upper);
+		assertTrue(key.endsWith(".txt"));
+		assertEquals(key, store.put(lower));
+		assertEquals(2, store.getReferenceCount(key));
+		deleteRecursively(root);
+		deleteRecursively(files);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testShortKey() throws IOException {
+		Path root = Paths.get("build", "test", "content-store-key");
+		ContentStore.open(root).getPath("a");
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testKeyOutsideStore() throws IOException {
+		Path root = Paths.get("build", "test", "content-store-key");
+		ContentStore.open(root).getPath("../../a.txt");
+	}
+
+}
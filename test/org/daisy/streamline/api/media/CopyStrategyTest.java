@@ -0,0 +1,107 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNoException;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class CopyStrategyTest {
+	private static final Path SOURCE = Paths.get("test/org/daisy/streamline/api/media/resource-files/b/resource1.txt");
+
+	private static void assertCopy(CopyMethod expected, CopyStrategy strategy, Path source) throws IOException {
+		Path target = Paths.get("build", "test", "copy-strategy", "target.txt");
+		Files.createDirectories(target.getParent());
+		try {
+			Files.write(target, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23});
+			assertEquals(expected, strategy.copy(source, target));
+			assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+		} finally {
+			Files.deleteIfExists(target);
+		}
+	}
+
+	@Test
+	public void testTransfer() throws IOException {
+		assertCopy(CopyMethod.TRANSFER, CopyStrategy.with(CopyMethod.TRANSFER, CopyMethod.COPY), SOURCE);
+	}
+	
+	@Test
+	public void testCopy() throws IOException {
+		assertCopy(CopyMethod.COPY, CopyStrategy.with(CopyMethod.COPY), SOURCE);
+	}
+	
+	@Test
+	public void testHardLink() throws IOException {
+		// A read-only copy of the source in the same folder as the target, so that the link can be created
+		Path source = Paths.get("build", "test", "copy-strategy", "source.txt");
+		Files.createDirectories(source.getParent());
+		assumeTrue(source.getFileSystem().supportedFileAttributeViews().contains("posix"));
+		Files.copy(SOURCE, source);
+		Files.setPosixFilePermissions(source, PosixFilePermissions.fromString("r--r--r--"));
+		try {
+			assertCopy(CopyMethod.HARD_LINK, CopyStrategy.with(CopyMethod.HARD_LINK, CopyMethod.COPY), source);
+		} finally {
+			Files.delete(source);
+		}
+	}
+	
+	@Test
+	public void testHardLinkWritable() throws IOException {
+		// The source can be modified, so it must not be linked
+		Path source = Paths.get("build", "test", "copy-strategy", "writable.txt");
+		Files.createDirectories(source.getParent());
+		Files.copy(SOURCE, source);
+		try {
+			assertCopy(CopyMethod.COPY, CopyStrategy.with(CopyMethod.HARD_LINK, CopyMethod.COPY), source);
+		} finally {
+			Files.delete(source);
+		}
+	}
+	
+	@Test
+	public void testTransferOntoLink() throws IOException {
+		// The target is a hard link to the source, for example after an earlier HARD_LINK copy
+		Path dir = Paths.get("build", "test", "copy-strategy");
+		Path source = dir.resolve("linked-source.txt");
+		Path target = dir.resolve("linked-target.txt");
+		Files.createDirectories(dir);
+		Files.deleteIfExists(target);
+		Files.copy(SOURCE, source, StandardCopyOption.REPLACE_EXISTING);
+		try {
+			try {
+				Files.createLink(target, source);
+			} catch (UnsupportedOperationException e) {
+				assumeNoException(e);
+			}
+			assertEquals(CopyMethod.TRANSFER, CopyStrategy.with(CopyMethod.TRANSFER).copy(source, target));
+			assertArrayEquals(Files.readAllBytes(SOURCE), Files.readAllBytes(source));
+			assertArrayEquals(Files.readAllBytes(SOURCE), Files.readAllBytes(target));
+		} finally {
+			Files.deleteIfExists(target);
+			Files.delete(source);
+		}
+	}
+	
+	@Test
+	public void testFallback() throws IOException {
+		Path target = Paths.get("build", "test", "copy-strategy", "missing", "target.txt");
+		try {
+			CopyStrategy.with(CopyMethod.HARD_LINK, CopyMethod.TRANSFER).copy(SOURCE, target);
+			fail();
+		} catch (IOException e) {
+			assertEquals(1, e.getSuppressed().length);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class DefaultAnnotatedFileTest {
+	
+	private static AnnotatedFile resource() throws URISyntaxException {
+		return DefaultAnnotatedFile.with(Paths.get(DefaultAnnotatedFileTest.class.getResource("resource-files/b/resource1.txt").toURI())).build();
+	}
+	
+	private static String asString(ByteBuffer bb) {
+		byte[] b = new byte[bb.remaining()];
+		bb.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testMap_01() throws URISyntaxException, IOException {
+		AnnotatedFile f = resource();
+		String expected = new String(Files.readAllBytes(f.getPath()), StandardCharsets.UTF_8);
+		assertEquals(expected, asString(f.map(0, Integer.MAX_VALUE)));
+		assertEquals(expected.substring(2, 5), asString(f.map(2, 3)));
+	}
+	
+	@Test
+	public void testMap_02() throws URISyntaxException, IOException {
+		AnnotatedFile f = resource();
+		Path p = f.getPath();
+		assertEquals(0, f.map(Files.size(p)+10, 10).capacity());
+	}
+	
+	@Test
+	public void testMapTail() throws URISyntaxException, IOException {
+		AnnotatedFile f = resource();
+		String expected = new String(Files.readAllBytes(f.getPath()), StandardCharsets.UTF_8);
+		assertEquals(expected.substring(expected.length()-3), asString(f.mapTail(3)));
+		assertEquals(expected, asString(f.mapTail(1000)));
+	}
+
+}
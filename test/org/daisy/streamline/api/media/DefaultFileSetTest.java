@@ -1,8 +1,11 @@
 package org.daisy.streamline.api.media;
 
+import static org.daisy.streamline.api.media.TestFiles.buildFileSet;
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -13,8 +16,15 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
@@ -61,12 +71,10 @@ public class DefaultFileSetTest {
 		assertEquals(Paths.get("a"), DefaultFileSet.findCommonAncestor(Arrays.asList(Paths.get("a/a.txt"))).get());
 	}
 	
-	private static DefaultFileSet buildFileSet() throws URISyntaxException {
-		return new DefaultFileSet.Builder(
-				DefaultAnnotatedFile.with(Paths.get(DefaultFileSetTest.class.getResource("resource-files/a/manifest.mf").toURI())).build(),
-				DefaultAnnotatedFile.with(Paths.get(DefaultFileSetTest.class.getResource("resource-files/b/resource1.txt").toURI())).build(),
-				DefaultAnnotatedFile.with(Paths.get(DefaultFileSetTest.class.getResource("resource-files/b/c/resource2.txt").toURI())).build()
-			).build();
+	@Test
+	public void testCommonAncestor_06() {
+		assertEquals(Paths.get("a"), DefaultFileSet.findCommonAncestor(Arrays.asList(Paths.get("a/b/c/x.txt"), Paths.get("a/y.txt"), Paths.get("a/b/z.txt"))).get());
+		assertFalse(DefaultFileSet.findCommonAncestor(Arrays.asList(Paths.get("x.txt"), Paths.get("a/y.txt"))).isPresent());
 	}
 	
 	@Test
@@ -133,5 +141,90 @@ public class DefaultFileSetTest {
 		Files.walkFileTree(copy1Folder.getPath(), deleteVisitor);
 		Files.walkFileTree(copy2Folder.getPath(), deleteVisitor);
 	}
+	
+	@Test
+	public void testInternalizeAllCopyParallel() throws URISyntaxException, IOException {
+		BaseFolder copyFolder = BaseFolder.with("build", "test", "copy3");
+		DefaultFileSet source = buildFileSet();
+		DefaultFileSet.Builder builder = new DefaultFileSet.Builder(copyFolder, source.getManifest(), source.getManifestPath());
+		source.getResourcePaths().forEach(v->builder.add(source.getResourceForKey(v).get(), v));
+		DefaultFileSet fs = builder.build();
+		assertEquals(3, fs.streamExternal().count());
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			InternalizationReport report = fs.internalizeAllCopy(executor);
+			assertTrue(report.isSuccessful());
+			assertEquals(fs.getResourcePaths(), report.getInternalized());
+			fs.getResourcePaths().forEach(v->assertEquals(Optional.of(CopyMethod.COPY), fs.getCopyMethod(v)));
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(0, fs.streamExternal().count());
+		assertEquals(3, fs.getResourcePaths().stream().map(v->fs.getResource(v).get()).filter(v->Files.exists(v.getPath())).count());
+		// Nothing left to do
+		assertTrue(fs.internalizeAllCopy(Runnable::run).getInternalized().isEmpty());
+		deleteRecursively(copyFolder.getPath());
+	}
+	
+	@Test
+	public void testInternalizeAllCopyAsync() throws URISyntaxException, IOException {
+		BaseFolder copyFolder = BaseFolder.with("build", "test", "copy4");
+		DefaultFileSet source = buildFileSet();
+		DefaultFileSet.Builder builder = new DefaultFileSet.Builder(copyFolder, source.getManifest(), source.getManifestPath());
+		source.getResourcePaths().forEach(v->builder.add(source.getResourceForKey(v).get(), v));
+		DefaultFileSet fs = builder.build();
+		deleteRecursively(copyFolder.getPath());
+		Map<String, AnnotatedFile> events = new ConcurrentHashMap<>();
+		// Run the tasks later, to see that nothing is done on the calling thread
+		Deque<Runnable> tasks = new ArrayDeque<>();
+		CompletableFuture<InternalizationReport> future = fs.internalizeAllCopyAsync(tasks::add, events::put);
+		assertFalse(Files.exists(copyFolder.getPath()));
+		while (!tasks.isEmpty()) {
+			tasks.poll().run();
+		}
+		InternalizationReport report = future.join();
+		assertTrue(report.isSuccessful());
+		assertEquals(fs.getResourcePaths(), events.keySet());
+		events.forEach((k, v)->assertEquals(fs.getResourceForKey(k).get().getPath(), v.getPath()));
+		assertEquals(0, fs.streamExternal().count());
+		deleteRecursively(copyFolder.getPath());
+	}
+	
+	@Test
+	public void testAddAll() throws IOException {
+		Path dir = Paths.get("build", "test", "import");
+		if (Files.exists(dir)) {
+			deleteRecursively(dir);
+		}
+		for (String p : Arrays.asList("manifest.xml", "a/1.xml", "a/2.txt", "a/b/3.xml", "a/b/4.xml", "c/5.xml")) {
+			Files.createDirectories(dir.resolve(p).getParent());
+			Files.write(dir.resolve(p), p.getBytes("utf-8"));
+		}
+		AnnotatedFile manifest = DefaultAnnotatedFile.with(dir.resolve("manifest.xml")).mediaType("application/xml").build();
+		// A manifest path that isn't normalized
+		DefaultFileSet.Builder builder = DefaultFileSet.with(BaseFolder.with(dir), manifest, "./manifest.xml");
+		builder.addAll(dir.resolve("a"), DirectoryImport.with().include("**.xml").exclude("b/4.xml").build());
+		DefaultFileSet fs = builder.build();
+		assertEquals(3, fs.getResourcePaths().size());
+		assertTrue(fs.getResource("a/b/3.xml").isPresent());
+		assertFalse(fs.getResource("a/b/4.xml").isPresent());
+		builder.addAll(dir);
+		fs = builder.build();
+		assertEquals(6, fs.getResourcePaths().size());
+		assertEquals(manifest, fs.getManifest());
+		DefaultFileSet filtered = DefaultFileSet.with(BaseFolder.with(dir), manifest)
+				.addAll(dir.resolve("a"), DirectoryImport.with().include("**.xml").exclude("b/4.xml").parallel(false).build())
+				.build();
+		assertEquals(3, filtered.getResourcePaths().size());
+		assertTrue(filtered.getResource("a/b/3.xml").isPresent());
+		assertFalse(filtered.getResource("a/b/4.xml").isPresent());
+		try {
+			DefaultFileSet.with(BaseFolder.with(dir), manifest).addAll(dir, DirectoryImport.with().annotator(p->null).build());
+			fail();
+		} catch (NullPointerException e) {
+			// Expected
+		}
+		deleteRecursively(dir);
+	}
 
 }
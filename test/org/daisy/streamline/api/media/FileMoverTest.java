@@ -0,0 +1,90 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileMoverTest {
+
+	@Test
+	public void testResumeCopy() throws IOException {
+		Path dir = Paths.get("build", "test", "mover");
+		Files.createDirectories(dir);
+		Path source = dir.resolve("source.bin");
+		Path target = dir.resolve("target.bin");
+		Files.deleteIfExists(target);
+		byte[] data = new byte[10000];
+		new Random(42).nextBytes(data);
+		Files.write(source, data);
+		// Simulate an interruption after the second chunk
+		FileMover interrupted = FileMover.with().chunkSize(1024).listener((p, transferred, size, elapsed)->{
+			if (transferred>=2048) {
+				throw new IllegalStateException("Interrupted");
+			}
+		}).build();
+		try {
+			interrupted.copyAndDelete(source, target);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(Files.exists(source));
+		assertFalse(Files.exists(target));
+		List<Long> progress = new ArrayList<>();
+		FileMover mover = FileMover.with().chunkSize(1024).listener((p, transferred, size, elapsed)->progress.add(transferred)).build();
+		mover.copyAndDelete(source, target);
+		// The copy resumed at the last checkpoint
+		assertEquals(Long.valueOf(3072), progress.get(0));
+		assertEquals(Long.valueOf(10000), progress.get(progress.size()-1));
+		assertFalse(Files.exists(source));
+		assertFalse(Files.exists(dir.resolve("target.bin.partial")));
+		assertFalse(Files.exists(dir.resolve("target.bin.partial.checkpoint")));
+		assertArrayEquals(data, Files.readAllBytes(target));
+		// Move back, within the file store
+		mover.move(target, source);
+		assertArrayEquals(data, Files.readAllBytes(source));
+		assertFalse(Files.exists(target));
+		Files.delete(source);
+	}
+
+	@Test
+	public void testRenameFallback() throws IOException {
+		Path dir = Paths.get("build", "test", "mover").toAbsolutePath();
+		Files.createDirectories(dir);
+		Path source = dir.resolve("fallback.bin");
+		Path zip = dir.resolve("fallback.zip");
+		Files.deleteIfExists(zip);
+		byte[] data = new byte[5000];
+		new Random(7).nextBytes(data);
+		Files.write(source, data);
+		List<Long> progress = new ArrayList<>();
+		FileMover mover = FileMover.with().chunkSize(1024).listener((p, transferred, size, elapsed)->progress.add(transferred)).build();
+		try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + zip.toUri()), Collections.singletonMap("create", "true"))) {
+			Path target = fs.getPath("/target.bin");
+			// Pretend that the stores are the same, the rename fails and the file is copied instead
+			mover.move(source, target, true);
+			assertArrayEquals(data, Files.readAllBytes(target));
+		}
+		assertEquals(Long.valueOf(5000), progress.get(progress.size()-1));
+		assertFalse(Files.exists(source));
+		Files.delete(zip);
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.buildFileSet;
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileSetChecksumsTest {
+
+	@Test
+	public void testGenerateAndVerify() throws URISyntaxException, IOException {
+		BaseFolder folder = BaseFolder.with("build", "test", "checksums");
+		deleteRecursively(folder.getPath());
+		DefaultFileSet fs = DefaultFileSet.copy(buildFileSet(), folder);
+		FileSetChecksums checksums = FileSetChecksums.with(ChecksumAlgorithm.SHA_256).build();
+		ChecksumManifest manifest = checksums.generate(fs);
+		assertEquals(3, manifest.getChecksums().size());
+		assertEquals(64, manifest.getChecksum("b/resource1.txt").get().length());
+		Path file = Paths.get("build", "test", "checksums.sha256");
+		manifest.write(file);
+		assertEquals(manifest, ChecksumManifest.read(file));
+		Files.delete(file);
+		assertFalse(checksums.verify(fs, manifest).isPresent());
+
+		Files.write(fs.getResource("b/c/resource2.txt").get().getPath(), "changed".getBytes(StandardCharsets.UTF_8));
+		assertEquals(Optional.of("b/c/resource2.txt"), checksums.verify(fs, manifest));
+		deleteRecursively(folder.getPath());
+	}
+
+	@Test
+	public void testVerifyIgnoresCache() throws URISyntaxException, IOException {
+		BaseFolder folder = BaseFolder.with("build", "test", "checksums-same-size");
+		deleteRecursively(folder.getPath());
+		DefaultFileSet fs = DefaultFileSet.copy(buildFileSet(), folder);
+		FileSetChecksums checksums = FileSetChecksums.with(ChecksumAlgorithm.SHA_256).build();
+		ChecksumManifest manifest = checksums.generate(fs);
+		Path file = fs.getResource("b/resource1.txt").get().getPath();
+		// Same size and modification time, different contents
+		FileTime modified = Files.getLastModifiedTime(file);
+		byte[] data = Files.readAllBytes(file);
+		data[0]++;
+		Files.write(file, data);
+		Files.setLastModifiedTime(file, modified);
+		assertEquals(Optional.of("b/resource1.txt"), checksums.verify(fs, manifest));
+		deleteRecursively(folder.getPath());
+	}
+
+	@Test
+	public void testEscapedPaths() throws IOException {
+		Map<String, String> checksums = new HashMap<>();
+		checksums.put("plain.txt", "00");
+		checksums.put("line\nbreak.txt", "01");
+		checksums.put("carriage\rreturn.txt", "02");
+		checksums.put("back\\slash.txt", "03");
+		ChecksumManifest manifest = new ChecksumManifest(ChecksumAlgorithm.CRC32, checksums);
+		Path file = Paths.get("build", "test", "checksums-escaped.crc32");
+		Files.createDirectories(file.getParent());
+		manifest.write(file);
+		List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+		// One line per path, after the header
+		assertEquals(5, lines.size());
+		assertTrue(lines.contains("\\01  line\\nbreak.txt"));
+		assertTrue(lines.contains("\\03  back\\\\slash.txt"));
+		assertTrue(lines.contains("00  plain.txt"));
+		assertEquals(manifest, ChecksumManifest.read(file));
+		Files.delete(file);
+	}
+
+	@Test
+	public void testCrc32Mapped() throws IOException {
+		Path file = Paths.get("build", "test", "checksums-large.bin");
+		Files.createDirectories(file.getParent());
+		byte[] data = new byte[5_000_000];
+		new Random(1).nextBytes(data);
+		Files.write(file, data);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		DigestCache cache = DigestCache.newInstance();
+		String expected = String.format("%08x", crc.getValue());
+		assertEquals(expected, DigestCache.toHex(cache.digest(file, ChecksumAlgorithm.CRC32.getName(), true)));
+		cache.clear();
+		assertEquals(expected, DigestCache.toHex(cache.digest(file, ChecksumAlgorithm.CRC32)));
+		Files.delete(file);
+	}
+
+}
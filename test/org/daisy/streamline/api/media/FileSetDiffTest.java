@@ -0,0 +1,66 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileSetDiffTest {
+
+	private static Path write(Path p, String data, long time) throws IOException {
+		Files.createDirectories(p.getParent());
+		Files.write(p, data.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(p, FileTime.fromMillis(time));
+		return p;
+	}
+
+	private static Map<String, ChangeType> changes(FileSetDiff diff, FileSet before, FileSet after) {
+		return diff.compare(before, after).collect(Collectors.toMap(ResourceChange::getPath, ResourceChange::getType, (a, b)->a, TreeMap::new));
+	}
+
+	@Test
+	public void testCompare() throws IOException {
+		Path a = Paths.get("build", "test", "diff", "a");
+		Path b = Paths.get("build", "test", "diff", "b");
+		DefaultFileSet before = DefaultFileSet.with(BaseFolder.with(a), DefaultAnnotatedFile.with(write(a.resolve("manifest.txt"), "m", 1000)).build())
+			.add(write(a.resolve("same.txt"), "same", 1000))
+			.add(write(a.resolve("touched.txt"), "touched", 1000))
+			.add(write(a.resolve("sub/modified.txt"), "abc", 1000))
+			.add(write(a.resolve("removed.txt"), "removed", 1000))
+			.add(write(a.resolve("same-time.txt"), "abc", 1000))
+			.build();
+		DefaultFileSet after = DefaultFileSet.with(BaseFolder.with(b), DefaultAnnotatedFile.with(write(b.resolve("manifest.txt"), "m", 1000)).build())
+			.add(write(b.resolve("same.txt"), "same", 1000))
+			.add(write(b.resolve("touched.txt"), "touched", 2000))
+			.add(write(b.resolve("sub/modified.txt"), "xyz", 2000))
+			.add(write(b.resolve("added.txt"), "added", 1000))
+			.add(write(b.resolve("same-time.txt"), "xyz", 1000))
+			.build();
+
+		Map<String, ChangeType> expected = new TreeMap<>();
+		expected.put("added.txt", ChangeType.ADDED);
+		expected.put("removed.txt", ChangeType.REMOVED);
+		expected.put("sub/modified.txt", ChangeType.MODIFIED);
+		expected.put("touched.txt", ChangeType.MODIFIED);
+		assertEquals(expected, changes(FileSetDiff.newInstance(), before, after));
+
+		DigestCache cache = DigestCache.newInstance();
+		expected.remove("touched.txt");
+		// Same size and modification time, but different contents
+		expected.put("same-time.txt", ChangeType.MODIFIED);
+		assertEquals(expected, changes(FileSetDiff.with().digests(true).digestCache(cache).build(), before, after));
+		// All resources with the same size are compared
+		assertEquals(10, cache.size());
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.daisy.streamline.api.media.TestFiles.fileSetBuilder;
+import static org.daisy.streamline.api.media.TestFiles.resourceFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileSetIndexTest {
+
+	private static DefaultFileSet buildFileSet() throws URISyntaxException {
+		return fileSetBuilder(
+				resourceFile("a/manifest.mf").formatName("manifest").build(),
+				resourceFile("b/resource1.txt")
+					.mediaType("text/plain").extension("txt").property("lines", 3).property("lang", "sv").property("flag", true).build(),
+				resourceFile("b/c/resource2.txt")
+					.property("size", 5L).property("ratio", 0.5).build()
+			).formatIdentifier(FormatIdentifier.with("test-format")).build();
+	}
+
+	@Test
+	public void testRoundTrip() throws URISyntaxException, IOException {
+		DefaultFileSet fs = buildFileSet();
+		Path index = Paths.get("build", "test", "index", "set.fsindex");
+		FileSetIndex.write(fs, index);
+		DefaultFileSet actual = FileSetIndex.read(index);
+		assertEquals(fs.getBaseFolder().getPath().toAbsolutePath(), actual.getBaseFolder().getPath());
+		assertEquals(fs.getManifestPath(), actual.getManifestPath());
+		assertEquals(fs.getFormatIdentifier(), actual.getFormatIdentifier());
+		assertEquals(fs.getResourcePaths(), actual.getResourcePaths());
+		for (String key : fs.getResourcePaths()) {
+			AnnotatedFile expected = fs.getResourceForKey(key).get();
+			AnnotatedFile f = actual.getResourceForKey(key).get();
+			assertEquals(expected.getPath().toAbsolutePath(), f.getPath());
+			assertEquals(expected.getFormatName(), f.getFormatName());
+			assertEquals(expected.getExtension(), f.getExtension());
+			assertEquals(expected.getMediaType(), f.getMediaType());
+			assertEquals(expected.getProperties(), f.getProperties());
+		}
+		Files.delete(index);
+	}
+
+	@Test
+	public void testRelocate() throws IOException {
+		Path dir = Paths.get("build", "test", "index", "relocate");
+		deleteRecursively(dir);
+		Path base = dir.resolve("before/set");
+		Files.createDirectories(base.resolve("a"));
+		Files.write(base.resolve("manifest.xml"), new byte[]{1});
+		Files.write(base.resolve("a/resource.txt"), new byte[]{2});
+		DefaultFileSet fs = DefaultFileSet.with(BaseFolder.with(base), DefaultAnnotatedFile.with(base.resolve("manifest.xml")).build())
+				.add(base.resolve("a/resource.txt"))
+				.build();
+		Path index = FileSetIndex.write(fs);
+		// Move the base folder and the index together
+		Files.move(dir.resolve("before"), dir.resolve("after"));
+		Path moved = dir.resolve("after/set").toAbsolutePath().normalize();
+		DefaultFileSet actual = FileSetIndex.read(moved.resolveSibling(index.getFileName()));
+		assertEquals(moved, actual.getBaseFolder().getPath());
+		assertEquals(moved.resolve("a/resource.txt"), actual.getResource("a/resource.txt").get().getPath());
+		assertEquals(moved.resolve("manifest.xml"), actual.getManifest().getPath());
+		deleteRecursively(dir);
+	}
+
+	private static void assertInvalid(byte[] data) throws IOException {
+		Path index = Paths.get("build", "test", "index", "invalid.fsindex");
+		Files.createDirectories(index.getParent());
+		Files.write(index, data);
+		try {
+			FileSetIndex.read(index);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		} finally {
+			Files.delete(index);
+		}
+	}
+
+	@Test
+	public void testInvalid() throws IOException {
+		// Truncated
+		assertInvalid(new byte[]{0x53, 0x4c, 0x46, 0x49, 0, 0, 0, 1, 0});
+		// Negative number of strings
+		assertInvalid(new byte[]{0x53, 0x4c, 0x46, 0x49, 0, 0, 0, 1, -1, -1, -1, -1});
+		// More strings than there is room for
+		assertInvalid(new byte[]{0x53, 0x4c, 0x46, 0x49, 0, 0, 0, 1, 0x7f, -1, -1, -1});
+		// A string longer than the remaining data
+		assertInvalid(new byte[]{0x53, 0x4c, 0x46, 0x49, 0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 9, 0x41});
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileSetMakerTest {
+
+	private static class TestProvider implements FileSetProvider {
+		private final Set<String> mediaTypes;
+		private final boolean fail;
+		private final List<String> calls;
+
+		private TestProvider(Set<String> mediaTypes, boolean fail, List<String> calls) {
+			this.mediaTypes = mediaTypes;
+			this.fail = fail;
+			this.calls = calls;
+		}
+
+		@Override
+		public Set<String> getMediaTypes() {
+			return mediaTypes;
+		}
+
+		@Override
+		public boolean accepts(FileDetails type) {
+			calls.add(toString());
+			return true;
+		}
+
+		@Override
+		public FileSet create(AnnotatedFile f, Map<String, Object> parameters) throws FileSetException {
+			if (fail) {
+				throw new FileSetException("Failed");
+			}
+			return DefaultFileSet.with(BaseFolder.with(f.getPath().getParent()), f).build();
+		}
+
+		@Override
+		public String toString() {
+			return mediaTypes + (fail ? " failing" : "");
+		}
+	}
+
+	@Test
+	public void testDispatch() {
+		List<String> calls = new ArrayList<>();
+		FileSetMaker maker = new FileSetMaker();
+		maker.addFactory(new TestProvider(Collections.emptySet(), false, calls));
+		maker.addFactory(new TestProvider(Collections.singleton("application/other"), false, calls));
+		TestProvider failing = new TestProvider(Collections.singleton("application/test"), true, calls);
+		maker.addFactory(failing);
+		AnnotatedFile in = DefaultAnnotatedFile.with(Paths.get("build", "test", "maker", "in.test")).mediaType("application/test").build();
+		List<FileSetProviderFailure> failures = new ArrayList<>();
+		FileSet fs = maker.create(in, Collections.emptyMap(), failures::add);
+		assertSame(in, fs.getManifest());
+		// The declared provider is tried first, the provider for other media types isn't consulted
+		assertEquals(2, calls.size());
+		assertEquals(failing.toString(), calls.get(0));
+		assertEquals(1, failures.size());
+		assertSame(failing, failures.get(0).getProvider());
+	}
+
+}
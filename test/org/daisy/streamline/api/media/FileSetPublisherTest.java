@@ -0,0 +1,67 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.daisy.streamline.api.media.TestFiles.fileSetBuilder;
+import static org.daisy.streamline.api.media.TestFiles.resourceFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FileSetPublisherTest {
+
+	private static DefaultFileSet buildFileSet() throws URISyntaxException {
+		return fileSetBuilder(
+				resourceFile("a/manifest.mf").build(),
+				resourceFile("b/resource1.txt").mediaType("text/plain").build(),
+				resourceFile("b/c/resource2.txt").build()
+			).build();
+	}
+
+	@Test
+	public void testPublish() throws URISyntaxException, IOException {
+		Path parent = Paths.get("build", "test", "publish");
+		BaseFolder target = BaseFolder.with(parent.resolve("output"));
+		deleteRecursively(parent);
+		FileSetPublisher publisher = FileSetPublisher.newInstance();
+		DefaultFileSet fs = publisher.publish(buildFileSet(), target);
+		assertEquals(0, fs.streamExternal().count());
+		assertEquals(3, fs.getResourcePaths().size());
+		assertTrue(Files.isRegularFile(fs.getManifest().getPath()));
+		assertTrue(Files.isRegularFile(target.getPath().resolve("b/c/resource2.txt")));
+		assertEquals("text/plain", fs.getResource("b/resource1.txt").get().getMediaType());
+		try (Stream<Path> s = Files.list(parent)) {
+			// No staging folders or markers are left
+			assertEquals(1, s.count());
+		}
+		try {
+			publisher.publish(buildFileSet(), target);
+			fail();
+		} catch (FileAlreadyExistsException e) {
+			// Expected
+		}
+		deleteRecursively(parent);
+		// Another publisher is publishing to the same target
+		Files.createDirectories(parent);
+		Files.createFile(parent.resolve(".staging-output.lock"));
+		try {
+			publisher.publish(buildFileSet(), target);
+			fail();
+		} catch (FileAlreadyExistsException e) {
+			assertFalse(Files.exists(target.getPath()));
+		}
+		deleteRecursively(parent);
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class FormatIdentifierTest {
+
+	@Test
+	public void testCanonical() {
+		FormatIdentifier a = FormatIdentifier.with("dtbook");
+		FormatIdentifier b = FormatIdentifier.with(new String("dtbook"));
+		assertSame(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertNotEquals(a, FormatIdentifier.with("html"));
+		assertEquals("dtbook", a.getIdentifier());
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testNull() {
+		FormatIdentifier.with(null);
+	}
+
+}
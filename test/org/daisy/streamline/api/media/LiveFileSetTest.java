@@ -0,0 +1,103 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class LiveFileSetTest {
+
+	private static Path setup(String name) throws IOException {
+		Path dir = Paths.get("build", "test", "live", name).toAbsolutePath();
+		deleteRecursively(dir);
+		Files.createDirectories(dir.resolve("sub"));
+		Files.write(dir.resolve("manifest.txt"), "m".getBytes(StandardCharsets.UTF_8));
+		Files.write(dir.resolve("sub/a.txt"), "a".getBytes(StandardCharsets.UTF_8));
+		return dir;
+	}
+
+	/**
+	 * Collects events until all the specified paths have been reported and no
+	 * more events arrive. A file that is written may be reported more than once,
+	 * so all events for each path are returned, in order.
+	 */
+	private static Map<String, List<ChangeType>> drain(BlockingQueue<ResourceChange> events, String ... paths) throws InterruptedException {
+		Map<String, List<ChangeType>> ret = new TreeMap<>();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+		while (System.nanoTime()<deadline) {
+			boolean done = ret.keySet().containsAll(Arrays.asList(paths));
+			ResourceChange c = events.poll(done ? 500 : 100, TimeUnit.MILLISECONDS);
+			if (c!=null) {
+				ret.computeIfAbsent(c.getPath().replace('\\', '/'), k->new ArrayList<>()).add(c.getType());
+			} else if (done) {
+				break;
+			}
+		}
+		return ret;
+	}
+
+	private static void assertModified(List<ChangeType> actual) {
+		assertFalse(actual.isEmpty());
+		assertTrue(actual.toString(), actual.stream().allMatch(v->v==ChangeType.MODIFIED));
+	}
+
+	private static void test(boolean polling) throws IOException, InterruptedException {
+		Path dir = setup(polling ? "polling" : "watching");
+		BlockingQueue<ResourceChange> events = new LinkedBlockingQueue<>();
+		try (LiveFileSet fs = LiveFileSet.with(BaseFolder.with(dir), DefaultAnnotatedFile.with(dir.resolve("manifest.txt")).build())
+				.polling(polling)
+				.pollInterval(Duration.ofMillis(100))
+				.build()) {
+			assertEquals(polling, fs.isPolling());
+			assertEquals(2, fs.getResourcePaths().size());
+			fs.addListener(events::add);
+			Files.createDirectories(dir.resolve("sub/new"));
+			Files.write(dir.resolve("sub/new/b.txt"), "b".getBytes(StandardCharsets.UTF_8));
+			Files.delete(dir.resolve("sub/a.txt"));
+			Map<String, List<ChangeType>> actual = drain(events, "sub/a.txt", "sub/new/b.txt");
+			assertEquals(new HashSet<>(Arrays.asList("sub/a.txt", "sub/new/b.txt")), actual.keySet());
+			assertEquals(Arrays.asList(ChangeType.REMOVED), actual.get("sub/a.txt"));
+			// The new file may have been seen before it was completely written
+			List<ChangeType> b = actual.get("sub/new/b.txt");
+			assertEquals(ChangeType.ADDED, b.get(0));
+			b.subList(1, b.size()).forEach(v->assertEquals(ChangeType.MODIFIED, v));
+			assertTrue(fs.getResource("sub/new/b.txt").isPresent());
+			assertFalse(fs.getResource("sub/a.txt").isPresent());
+			Files.write(dir.resolve("sub/new/b.txt"), "modified".getBytes(StandardCharsets.UTF_8));
+			actual = drain(events, "sub/new/b.txt");
+			assertEquals(Collections.singleton("sub/new/b.txt"), actual.keySet());
+			assertModified(actual.get("sub/new/b.txt"));
+		}
+	}
+
+	@Test
+	public void testWatching() throws IOException, InterruptedException {
+		test(false);
+	}
+
+	@Test
+	public void testPolling() throws IOException, InterruptedException {
+		test(true);
+	}
+
+}
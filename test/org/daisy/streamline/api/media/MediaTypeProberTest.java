@@ -0,0 +1,104 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class MediaTypeProberTest {
+
+	@Test
+	public void testExtension() {
+		ExtensionMediaTypeProber p = ExtensionMediaTypeProber.newInstance();
+		assertEquals("application/epub+zip", p.probeContentType(Paths.get("a", "book.EPUB")));
+		assertEquals("text/css", p.probeContentType(Paths.get("style.css")));
+		assertNull(p.probeContentType(Paths.get("file.unk")));
+		assertNull(p.probeContentType(Paths.get("file")));
+	}
+	
+	@Test
+	public void testExtensionCustom() {
+		ExtensionMediaTypeProber p = ExtensionMediaTypeProber.with(Collections.singletonMap("UNK", "application/test"));
+		assertEquals("application/test", p.probeContentType(Paths.get("file.unk")));
+	}
+	
+	@Test
+	public void testContent() throws IOException {
+		ContentMediaTypeProber p = ContentMediaTypeProber.newInstance();
+		assertEquals("application/xml", p.probeContentType(Paths.get("test/resource-files/test.qqq")));
+		assertNull(p.probeContentType(Paths.get("test/resource-files/does-not-exist")));
+	}
+	
+	@Test
+	public void testContentOcf() {
+		byte[] b = new byte[100];
+		byte[] head = {'P', 'K', 3, 4, 10, 0, 0, 0, 0, 0};
+		System.arraycopy(head, 0, b, 0, head.length);
+		byte[] type = "application/epub+zip".getBytes(StandardCharsets.US_ASCII);
+		b[18] = (byte)type.length;
+		b[26] = 8;
+		System.arraycopy("mimetype".getBytes(StandardCharsets.US_ASCII), 0, b, 30, 8);
+		System.arraycopy(type, 0, b, 38, type.length);
+		assertEquals("application/epub+zip", ContentMediaTypeProber.probe(b, b.length));
+		assertEquals("application/zip", ContentMediaTypeProber.probe(b, 20));
+	}
+	
+	@Test
+	public void testCaching() throws IOException {
+		AtomicInteger count = new AtomicInteger();
+		MediaTypeProber p = CachingMediaTypeProber.with(path->{
+			count.incrementAndGet();
+			return "application/test";
+		});
+		p.probeContentType(Paths.get("a.test"));
+		p.probeContentType(Paths.get("b.TEST"));
+		assertEquals(1, count.get());
+		p.probeContentType(Paths.get("noext"));
+		p.probeContentType(Paths.get("noext"));
+		assertEquals(3, count.get());
+	}
+	
+	@Test
+	public void testCachingFailures() throws IOException {
+		AtomicInteger count = new AtomicInteger();
+		MediaTypeProber p = CachingMediaTypeProber.with(path->{
+			if (count.incrementAndGet()==1) {
+				throw new IOException();
+			}
+			return null;
+		});
+		try {
+			p.probeContentType(Paths.get("a.unk"));
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+		// The exception isn't remembered, but the unknown type is
+		assertNull(p.probeContentType(Paths.get("b.unk")));
+		assertNull(p.probeContentType(Paths.get("c.unk")));
+		assertEquals(2, count.get());
+	}
+	
+	@Test
+	public void testOrElse() throws IOException {
+		MediaTypeProber p = ExtensionMediaTypeProber.newInstance().orElse(path->"application/test");
+		assertEquals("application/xml", p.probeContentType(Paths.get("file.xml")));
+		assertEquals("application/test", p.probeContentType(Paths.get("file.unk")));
+	}
+	
+	@Test
+	public void testCreate() {
+		AnnotatedFile f = DefaultAnnotatedFile.create(Paths.get("test/resource-files/test.qqq"), ContentMediaTypeProber.newInstance());
+		assertEquals("application/xml", f.getMediaType());
+		assertEquals("qqq", f.getExtension());
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.daisy.streamline.api.media.TestFiles.fileSetBuilder;
+import static org.daisy.streamline.api.media.TestFiles.resourceFile;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class OverlayFileSetTest {
+
+	private static DefaultFileSet buildFileSet() throws URISyntaxException {
+		return fileSetBuilder(
+				resourceFile("a/manifest.mf").build(),
+				resourceFile("b/resource1.txt").mediaType("text/plain").build(),
+				resourceFile("b/c/resource2.txt").build()
+			).build();
+	}
+
+	@Test
+	public void testOverlay() throws URISyntaxException, IOException {
+		BaseFolder upper = BaseFolder.with("build", "test", "overlay-upper");
+		BaseFolder flat = BaseFolder.with("build", "test", "overlay-flat");
+		deleteRecursively(upper.getPath());
+		deleteRecursively(flat.getPath());
+		DefaultFileSet lower = buildFileSet();
+		Path original = lower.getResource("b/resource1.txt").get().getPath();
+		byte[] originalData = Files.readAllBytes(original);
+
+		OverlayFileSet fs = OverlayFileSet.with(lower, upper);
+		assertEquals(3, fs.streamExternal().count());
+		Path writable = fs.getWritablePath("b/./resource1.txt");
+		assertTrue(fs.isModified("b/resource1.txt"));
+		Files.write(writable, "modified".getBytes(StandardCharsets.UTF_8));
+		assertEquals("text/plain", fs.getResource("b/resource1.txt").get().getMediaType());
+		assertEquals(writable, fs.getResource(writable).get().getPath());
+		Files.write(fs.getWritablePath("added.txt"), "added".getBytes(StandardCharsets.UTF_8));
+		assertTrue(fs.remove("b/c/resource2.txt"));
+		assertFalse(fs.getResource("b/c/resource2.txt").isPresent());
+		assertEquals(3, fs.getResourcePaths().size());
+		assertEquals(1, fs.streamExternal().count());
+		// The lower layer is unchanged
+		assertArrayEquals(originalData, Files.readAllBytes(original));
+		assertEquals(3, lower.getResourcePaths().size());
+
+		DefaultFileSet flattened = fs.flatten(flat);
+		assertEquals(0, flattened.streamExternal().count());
+		assertEquals(3, flattened.getResourcePaths().size());
+		assertEquals("modified", new String(Files.readAllBytes(flattened.getResource("b/resource1.txt").get().getPath()), StandardCharsets.UTF_8));
+		deleteRecursively(upper.getPath());
+		deleteRecursively(flat.getPath());
+	}
+
+	@Test
+	public void testInternalizeAsyncWithFailingListener() throws URISyntaxException, IOException {
+		BaseFolder upper = BaseFolder.with("build", "test", "overlay-async");
+		deleteRecursively(upper.getPath());
+		OverlayFileSet fs = OverlayFileSet.with(buildFileSet(), upper);
+		InternalizationReport report = fs.internalizeAllCopyAsync(Runnable::run, (k, f)->{
+			throw new IllegalStateException();
+		}).join();
+		// A failing listener doesn't affect the internalization
+		assertTrue(report.isSuccessful());
+		assertEquals(3, report.getInternalized().size());
+		assertEquals(0, fs.streamExternal().count());
+		deleteRecursively(upper.getPath());
+	}
+
+}
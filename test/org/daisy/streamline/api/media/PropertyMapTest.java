@@ -0,0 +1,70 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class PropertyMapTest {
+
+	@Test
+	public void testPlus() {
+		Random rnd = new Random(4711);
+		Map<String, Object> expected = new HashMap<>();
+		PropertyMap actual = PropertyMap.empty();
+		for (int i=0; i<5000; i++) {
+			String key = "key-" + rnd.nextInt(2000);
+			Integer value = rnd.nextInt(10);
+			expected.put(key, value);
+			actual = actual.plus(key, value);
+		}
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertFalse(actual.containsKey("missing"));
+	}
+
+	@Test
+	public void testCollisions() {
+		// "Aa" and "BB" have the same hash code
+		PropertyMap m1 = PropertyMap.empty().plus("Aa", 1).plus("BB", 2);
+		PropertyMap m2 = m1.plus("AaAa", 3).plus("BBBB", 4).plus("AaBB", 5).plus("Aa", 6).plus(null, 7);
+		assertEquals(2, m1.size());
+		assertEquals(1, m1.get("Aa"));
+		assertEquals(2, m1.get("BB"));
+		assertEquals(6, m2.size());
+		assertEquals(6, m2.get("Aa"));
+		assertEquals(5, m2.get("AaBB"));
+		assertEquals(7, m2.get(null));
+		assertNull(m2.get(1));
+		assertEquals(6, m2.entrySet().stream().count());
+	}
+
+	@Test
+	public void testStructuralSharing() {
+		PropertyMap m = PropertyMap.empty().plus("a", "1");
+		assertSame(m, m.plus("a", "1"));
+		assertSame(m, PropertyMap.empty().plusAll(m));
+		DefaultAnnotatedFile f1 = DefaultAnnotatedFile.with(Paths.get("a.xml")).property("key", "value").build();
+		DefaultAnnotatedFile f2 = DefaultAnnotatedFile.with(f1).file(Paths.get("b.xml")).build();
+		assertSame(f1.getProperties(), f2.getProperties());
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testImmutable() {
+		DefaultFileDetails d = new DefaultFileDetails.Builder().property("a", 1).build();
+		assertTrue(d.getProperties().containsKey("a"));
+		d.getProperties().put("b", 2);
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class ResourceIndexTest {
+	private static final Path BASE = Paths.get("base", "folder");
+	private static final String[] SEGMENTS = {"a", "b", "c.txt", "..", ".", "", "d"};
+	
+	private static ResourceIndex buildIndex(String ... paths) {
+		ResourceIndex index = new ResourceIndex(BASE);
+		for (String p : paths) {
+			String key = DefaultFileSet.normalizeRelativePath(BASE, p);
+			index.put(key, DefaultAnnotatedFile.with(BASE.resolve(key)).build());
+		}
+		return index;
+	}
+
+	@Test
+	public void testFind() {
+		ResourceIndex index = buildIndex("a/c.txt", "a/b/c.txt", "d", "../d", "../../a/c.txt");
+		assertEquals(BASE.resolve("a/c.txt"), index.find("a/b/../c.txt").getPath());
+		assertEquals(BASE.resolve("a/c.txt"), index.find("./a//c.txt").getPath());
+		assertEquals(BASE.resolve("a/c.txt"), index.find("x/y/../../a/c.txt").getPath());
+		assertEquals(BASE.resolve("../d"), index.find("a/../../d").getPath());
+		assertEquals(BASE.resolve("../../a/c.txt"), index.find("../x/../../a/c.txt").getPath());
+		assertNull(index.find("a"));
+		assertNull(index.find("a/b"));
+		assertNull(index.find("x/../../../d"));
+		assertNull(index.find("a/x.txt"));
+	}
+	
+	@Test
+	public void testFindCompareToPath() {
+		Random r = new Random(4711);
+		String[] keys = new String[100];
+		for (int i=0; i<keys.length; i++) {
+			keys[i] = randomPath(r);
+		}
+		ResourceIndex index = buildIndex(keys);
+		for (int i=0; i<10000; i++) {
+			String p = randomPath(r);
+			String key = DefaultFileSet.normalizeRelativePath(BASE, p);
+			assertEquals(p, index.get(key), index.find(p));
+		}
+	}
+	
+	private static String randomPath(Random r) {
+		StringBuilder sb = new StringBuilder();
+		int len = r.nextInt(6) + 1;
+		for (int i=0; i<len; i++) {
+			if (i>0) {
+				sb.append('/');
+				sb.append(SEGMENTS[r.nextInt(SEGMENTS.length)]);
+			} else {
+				// An empty first segment would make the path absolute
+				sb.append(SEGMENTS[r.nextInt(SEGMENTS.length-2)]);
+			}
+		}
+		return sb.toString();
+	}
+	
+	@Test
+	public void testKeysBelow() {
+		ResourceIndex index = buildIndex("a/c.txt", "a/b/c.txt", "d", "a/b/d/c.txt");
+		assertEquals(new HashSet<>(Arrays.asList("a/c.txt", "a/b/c.txt", "a/b/d/c.txt")), index.keysBelow("a"));
+		assertEquals(new HashSet<>(Arrays.asList("a/b/c.txt", "a/b/d/c.txt")), index.keysBelow("a/x/../b/"));
+		assertEquals(4, index.keysBelow("").size());
+		assertEquals(0, index.keysBelow("d").size());
+		assertEquals(0, index.keysBelow("x").size());
+	}
+
+}
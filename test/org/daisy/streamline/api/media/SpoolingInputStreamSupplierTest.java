@@ -0,0 +1,147 @@
+package org.daisy.streamline.api.media;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class SpoolingInputStreamSupplierTest {
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[1000];
+		int len;
+		while ((len = in.read(buf))>-1) {
+			out.write(buf, 0, len);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] data(int size) {
+		byte[] ret = new byte[size];
+		new Random(size).nextBytes(ret);
+		return ret;
+	}
+
+	@Test
+	public void testSmall() throws IOException {
+		byte[] data = data(100_000);
+		try (SpoolingInputStreamSupplier s = SpoolingInputStreamSupplier.with(new ByteArrayInputStream(data), "test")) {
+			try (InputStream in1 = s.newInputStream(); InputStream in2 = s.newInputStream()) {
+				assertEquals(data[0] & 0xFF, in2.read());
+				assertArrayEquals(data, readAll(in1));
+				assertEquals(data.length-1, in2.skip(data.length));
+				assertEquals(-1, in2.read());
+			}
+			assertArrayEquals(data, readAll(s.newInputStream()));
+			assertFalse(s.isSpilled());
+			assertEquals("test", s.getSystemId());
+		}
+	}
+
+	@Test
+	public void testReadWhileSourceBlocks() throws Exception {
+		byte[] data = data(1000);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		// Returns the data, then blocks until resumed before signaling the end
+		InputStream source = new InputStream() {
+			private int pos = 0;
+			@Override
+			public int read() throws IOException {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (pos<data.length) {
+					int n = Math.min(len, data.length-pos);
+					System.arraycopy(data, pos, b, off, n);
+					pos += n;
+					return n;
+				}
+				blocked.countDown();
+				try {
+					resume.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return -1;
+			}
+		};
+		try (SpoolingInputStreamSupplier s = SpoolingInputStreamSupplier.with(source, "test")) {
+			CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(()->{
+				try (InputStream in = s.newInputStream()) {
+					return readAll(in);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			assertTrue(blocked.await(10, TimeUnit.SECONDS));
+			// The spooled data can be read while the source is blocked
+			CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(()->{
+				try (InputStream in = s.newInputStream()) {
+					byte[] b = new byte[data.length];
+					int off = 0;
+					while (off<b.length) {
+						off += in.read(b, off, b.length-off);
+					}
+					return b;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			assertArrayEquals(data, second.get(10, TimeUnit.SECONDS));
+			resume.countDown();
+			assertArrayEquals(data, first.get(10, TimeUnit.SECONDS));
+		} finally {
+			resume.countDown();
+		}
+	}
+
+	@Test
+	public void testSpillConcurrent() throws IOException {
+		byte[] data = data(1_000_000);
+		SpoolingInputStreamSupplier s = new SpoolingInputStreamSupplier.Builder(new ByteArrayInputStream(data), "test").memoryLimit(200_000).build();
+		try {
+			List<CompletableFuture<byte[]>> readers = new ArrayList<>();
+			for (int i=0; i<4; i++) {
+				readers.add(CompletableFuture.supplyAsync(()->{
+					try (InputStream in = s.newInputStream()) {
+						return readAll(in);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}));
+			}
+			for (CompletableFuture<byte[]> r : readers) {
+				assertArrayEquals(data, r.join());
+			}
+			assertTrue(s.isSpilled());
+			assertEquals(data.length, s.getSpooledLength());
+		} finally {
+			s.close();
+		}
+		try {
+			s.newInputStream();
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
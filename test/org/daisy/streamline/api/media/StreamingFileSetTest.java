@@ -0,0 +1,98 @@
+package org.daisy.streamline.api.media;
+
+import static org.daisy.streamline.api.media.TestFiles.deleteRecursively;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class StreamingFileSetTest {
+	private static final Path ROOT = Paths.get("build", "test", "streaming");
+	private static final Set<String> EXPECTED = new HashSet<>();
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		tearDown();
+		// A flat folder large enough to be split in batches, and a few nested ones
+		for (String dir : Arrays.asList("pages", "a", "a/b", "a/b/c", "d")) {
+			Files.createDirectories(ROOT.resolve(dir));
+			int n = "pages".equals(dir) ? 3000 : 10;
+			for (int i=0; i<n; i++) {
+				Path p = ROOT.resolve(dir).resolve("f" + i + ".txt");
+				Files.write(p, new byte[]{(byte)i});
+				EXPECTED.add(ROOT.relativize(p).toString());
+			}
+		}
+		Files.write(ROOT.resolve("manifest.xml"), "<x/>".getBytes(StandardCharsets.UTF_8));
+		EXPECTED.add("manifest.xml");
+	}
+
+	@AfterClass
+	public static void tearDown() throws IOException {
+		deleteRecursively(ROOT);
+	}
+
+	private static StreamingFileSet.Builder builder() {
+		return StreamingFileSet.with(BaseFolder.with(ROOT), DefaultAnnotatedFile.with(ROOT.resolve("manifest.xml")).mediaType("application/xml").build());
+	}
+
+	@Test
+	public void testStreamDirectory() {
+		StreamingFileSet fs = builder().build();
+		try (Stream<String> s = fs.streamResourcePaths()) {
+			assertEquals(EXPECTED, s.collect(Collectors.toSet()));
+		}
+		try (Stream<String> s = fs.streamResourcePaths().parallel()) {
+			Set<String> actual = s.collect(Collectors.toSet());
+			assertEquals(EXPECTED, actual);
+		}
+		try (Stream<AnnotatedFile> s = fs.streamResources()) {
+			assertEquals(1, s.filter(v->"application/xml".equals(v.getMediaType())).count());
+		}
+		assertEquals(EXPECTED, fs.getResourcePaths());
+		assertEquals(0, fs.streamExternal().count());
+	}
+
+	@Test
+	public void testGetResource() {
+		StreamingFileSet fs = builder().build();
+		assertTrue(fs.isManifest("./a/../manifest.xml"));
+		assertEquals("txt", fs.getResource("a/b/../f1.txt").get().getExtension());
+		assertEquals(ROOT.resolve("d/f2.txt"), fs.getResource(ROOT.resolve("d/f2.txt")).get().getPath());
+		assertFalse(fs.getResource("a/f99.txt").isPresent());
+		assertFalse(fs.getResource("a/b").isPresent());
+	}
+
+	@Test
+	public void testIndex() throws IOException {
+		Path index = Paths.get("build", "test", "streaming-index.txt");
+		Files.write(index, Arrays.asList("manifest.xml", "", "a/f1.txt", "./d/f2.txt"), StandardCharsets.UTF_8);
+		StreamingFileSet fs = builder().index(index).build();
+		try {
+			assertEquals(new HashSet<>(Arrays.asList("manifest.xml", "a/f1.txt", "d/f2.txt")), fs.getResourcePaths());
+			assertTrue(fs.getResourceForKey("d/f2.txt").isPresent());
+			assertFalse(fs.getResourceForKey("d/f3.txt").isPresent());
+			assertEquals(0, fs.streamExternal().count());
+		} finally {
+			Files.delete(index);
+		}
+		// The keys were read on the first lookup
+		assertTrue(fs.getResourceForKey("a/f1.txt").isPresent());
+	}
+
+}
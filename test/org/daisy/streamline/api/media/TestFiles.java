@@ -0,0 +1,58 @@
+package org.daisy.streamline.api.media;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Provides test fixtures based on the files in <code>resource-files</code>.
+ */
+final class TestFiles {
+
+	private TestFiles() {}
+
+	/**
+	 * Creates a builder for one of the resource files.
+	 * @param path the path relative to <code>resource-files</code>
+	 * @return a new builder
+	 * @throws URISyntaxException if the resource cannot be located
+	 */
+	static DefaultAnnotatedFile.Builder resourceFile(String path) throws URISyntaxException {
+		return DefaultAnnotatedFile.with(Paths.get(TestFiles.class.getResource("resource-files/" + path).toURI()));
+	}
+
+	/**
+	 * Creates a builder for the standard test file set, with the specified files.
+	 * @param manifest the manifest, a/manifest.mf
+	 * @param resource1 b/resource1.txt
+	 * @param resource2 b/c/resource2.txt
+	 * @return a new builder
+	 */
+	static DefaultFileSet.Builder fileSetBuilder(AnnotatedFile manifest, AnnotatedFile resource1, AnnotatedFile resource2) {
+		return new DefaultFileSet.Builder(manifest, resource1, resource2);
+	}
+
+	/**
+	 * Builds the standard test file set without any annotations.
+	 * @return a new file set
+	 * @throws URISyntaxException if the resources cannot be located
+	 */
+	static DefaultFileSet buildFileSet() throws URISyntaxException {
+		return fileSetBuilder(
+				resourceFile("a/manifest.mf").build(),
+				resourceFile("b/resource1.txt").build(),
+				resourceFile("b/c/resource2.txt").build()
+			).build();
+	}
+
+	/**
+	 * Deletes a folder and its contents, if it exists.
+	 * @param path the folder
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void deleteRecursively(Path path) throws IOException {
+		FileUtils.deleteRecursively(path);
+	}
+
+}